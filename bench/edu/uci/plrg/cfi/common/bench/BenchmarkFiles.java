@@ -0,0 +1,71 @@
+package edu.uci.plrg.cfi.common.bench;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import edu.uci.plrg.cfi.common.io.LittleEndianOutputStream;
+
+/**
+ * Data files and page cache control shared by the io benchmarks. Files are created in the directory named by the
+ * system property <code>bench.dir</code>, or the system temp directory.
+ */
+public class BenchmarkFiles {
+
+	public static final int RECORD_WORDS = 3;
+	public static final int BATCH_RECORDS = 256;
+
+	private static final String DROP_CACHES = "/proc/sys/vm/drop_caches";
+
+	public static File createTempFile(String prefix) throws IOException {
+		String directory = System.getProperty("bench.dir");
+		File file = File.createTempFile(prefix, ".dat", (directory == null) ? null : new File(directory));
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Creates a file of <code>megabytes</code> of pseudo-random longs.
+	 */
+	public static File createDataFile(int megabytes) throws IOException {
+		File file = createTempFile("bench-read");
+		LittleEndianOutputStream output = new LittleEndianOutputStream(file, 1 << 16);
+		long value = 0x9e3779b97f4a7c15L;
+		for (long i = ((long) megabytes << 20) >> 3; i > 0L; i--) {
+			value ^= (value << 13);
+			value ^= (value >>> 7);
+			value ^= (value << 17);
+			output.writeLong(value);
+		}
+		output.close();
+		return file;
+	}
+
+	/**
+	 * Writes back dirty pages and drops the kernel's page cache, so that the next read of any file goes to the disk.
+	 * Only possible on Linux, as root.
+	 */
+	public static void dropPageCache() throws IOException {
+		try {
+			Runtime.getRuntime().exec("sync").waitFor();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while syncing before dropping the page cache");
+		}
+
+		FileOutputStream dropCaches;
+		try {
+			dropCaches = new FileOutputStream(DROP_CACHES);
+		} catch (FileNotFoundException e) {
+			throw new IllegalStateException(String.format(
+					"Cold page cache runs require write access to %s (Linux, as root): %s", DROP_CACHES,
+					e.getMessage()));
+		}
+		try {
+			dropCaches.write('1');
+		} finally {
+			dropCaches.close();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package edu.uci.plrg.cfi.common.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.uci.plrg.cfi.common.io.LittleEndianOutputStream;
+
+/**
+ * Time to encode <code>megabytes</code> of 3-word records into a discarding sink, so that only the encoding and
+ * buffering cost is measured:
+ *
+ * <pre>
+ * legacy     the pre-rework writer (see LegacyStreams), one value at a time
+ * per-value  LittleEndianOutputStream.writeLong()
+ * bulk       LittleEndianOutputStream.writeLongs() over batches of records
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EncodeBenchmark {
+
+	private static class DiscardingOutputStream extends OutputStream {
+		long count = 0L;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte b[], int off, int len) {
+			count += len;
+		}
+	}
+
+	@Param({ "legacy", "per-value", "bulk" })
+	public String path;
+
+	@Param({ "256" })
+	public int megabytes;
+
+	@Benchmark
+	public long encodeRecords() throws IOException {
+		long recordCount = ((long) megabytes << 20) / (BenchmarkFiles.RECORD_WORDS << 3);
+		DiscardingOutputStream sink = new DiscardingOutputStream();
+
+		if (path.equals("legacy")) {
+			LegacyStreams.Writer output = new LegacyStreams.Writer(sink);
+			for (long i = 0; i < recordCount; i++) {
+				output.writeLong(i);
+				output.writeLong(i ^ 0x5555555555555555L);
+				output.writeLong(i * 0x9e3779b97f4a7c15L);
+			}
+			output.close();
+		} else if (path.equals("per-value")) {
+			LittleEndianOutputStream output = new LittleEndianOutputStream(sink, "discard");
+			for (long i = 0; i < recordCount; i++) {
+				output.writeLong(i);
+				output.writeLong(i ^ 0x5555555555555555L);
+				output.writeLong(i * 0x9e3779b97f4a7c15L);
+			}
+			output.close();
+		} else {
+			LittleEndianOutputStream output = new LittleEndianOutputStream(sink, "discard");
+			long batch[] = new long[BenchmarkFiles.BATCH_RECORDS * BenchmarkFiles.RECORD_WORDS];
+			int batchIndex = 0;
+			for (long i = 0; i < recordCount; i++) {
+				batch[batchIndex++] = i;
+				batch[batchIndex++] = i ^ 0x5555555555555555L;
+				batch[batchIndex++] = i * 0x9e3779b97f4a7c15L;
+				if (batchIndex == batch.length) {
+					output.writeLongs(batch);
+					batchIndex = 0;
+				}
+			}
+			output.writeLongs(batch, 0, batchIndex);
+			output.close();
+		}
+		return sink.count;
+	}
+}
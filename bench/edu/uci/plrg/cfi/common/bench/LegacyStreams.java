@@ -0,0 +1,96 @@
+package edu.uci.plrg.cfi.common.bench;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The little-endian streams as they were before the io rework, reproduced as baselines: a fixed 16 KB buffer, refilled
+ * (sized by <code>available()</code>) only when exactly consumed, and bytes assembled one at a time.
+ */
+class LegacyStreams {
+
+	static final int BUFFER_SIZE = 1 << 14;
+
+	static class Reader {
+		private final InputStream input;
+		private int end = -1;
+		private int byteIndex = -1;
+		private final byte buffer[] = new byte[BUFFER_SIZE];
+
+		Reader(InputStream input) {
+			this.input = input;
+		}
+
+		int readInt() throws IOException {
+			refill();
+			int value = ((((int) buffer[byteIndex + 3]) & 0xff) << 0x18)
+					| ((((int) buffer[byteIndex + 2]) & 0xff) << 0x10)
+					| ((((int) buffer[byteIndex + 1]) & 0xff) << 0x8) | (((int) buffer[byteIndex]) & 0xff);
+			byteIndex += 4;
+			return value;
+		}
+
+		long readLong() throws IOException {
+			refill();
+			long value = ((((long) buffer[byteIndex + 7]) & 0xffL) << 0x38)
+					| ((((long) buffer[byteIndex + 6]) & 0xffL) << 0x30)
+					| ((((long) buffer[byteIndex + 5]) & 0xffL) << 0x28)
+					| ((((long) buffer[byteIndex + 4]) & 0xffL) << 0x20)
+					| ((((long) buffer[byteIndex + 3]) & 0xffL) << 0x18)
+					| ((((long) buffer[byteIndex + 2]) & 0xffL) << 0x10)
+					| ((((long) buffer[byteIndex + 1]) & 0xffL) << 0x8) | (((long) buffer[byteIndex]) & 0xffL);
+			byteIndex += 8;
+			return value;
+		}
+
+		void close() throws IOException {
+			input.close();
+		}
+
+		private void refill() throws IOException {
+			if ((end < 0) || (byteIndex == BUFFER_SIZE)) {
+				end = Math.min(input.available(), BUFFER_SIZE);
+				input.read(buffer, 0, end);
+				byteIndex = 0;
+			}
+
+			if (byteIndex >= end)
+				throw new EOFException("End of input stream reached.");
+		}
+	}
+
+	static class Writer {
+		private final OutputStream output;
+		private int byteIndex = 0;
+		private final byte buffer[] = new byte[BUFFER_SIZE];
+
+		Writer(OutputStream output) {
+			this.output = output;
+		}
+
+		void writeInt(int data) throws IOException {
+			if (byteIndex == BUFFER_SIZE) {
+				output.write(buffer);
+				byteIndex = 0;
+			}
+
+			buffer[byteIndex++] = (byte) (data);
+			buffer[byteIndex++] = (byte) (data >> 0x8);
+			buffer[byteIndex++] = (byte) (data >> 0x10);
+			buffer[byteIndex++] = (byte) (data >> 0x18);
+		}
+
+		void writeLong(long data) throws IOException {
+			writeInt((int) data);
+			writeInt((int) (data >> 0x20));
+		}
+
+		void close() throws IOException {
+			output.write(buffer, 0, byteIndex);
+			byteIndex = 0;
+			output.close();
+		}
+	}
+}
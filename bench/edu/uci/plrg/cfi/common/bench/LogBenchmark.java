@@ -0,0 +1,91 @@
+package edu.uci.plrg.cfi.common.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.uci.plrg.cfi.common.io.LittleEndianOutputStream;
+import edu.uci.plrg.cfi.common.log.BinaryLogWriter;
+import edu.uci.plrg.cfi.common.log.Log;
+
+/**
+ * Cost of one <code>Log</code> call into a discarding sink, so that only formatting or encoding is measured:
+ *
+ * <pre>
+ * text    a text output, formatted with String.format on the calling thread
+ * binary  a BinaryLogWriter, which records the template id and the raw arguments
+ * </pre>
+ *
+ * The <code>int</code> and <code>long</code> calls go through the fixed-arity overloads, which reach the binary sink
+ * unboxed; <code>logObjects</code> takes the varargs path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LogBenchmark {
+
+	private static class DiscardingOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte b[], int off, int len) {
+		}
+	}
+
+	@Param({ "text", "binary" })
+	public String sink;
+
+	private int counter = 0;
+
+	@Setup(Level.Trial)
+	public void addOutput() throws IOException {
+		Log.clearOutputs();
+		Log.setLevel(Log.Level.MESSAGE);
+		if (sink.equals("binary"))
+			Log.addBinaryOutput(new BinaryLogWriter(new LittleEndianOutputStream(new DiscardingOutputStream(),
+					"discard", 1 << 16)));
+		else
+			Log.addOutput(new DiscardingOutputStream());
+	}
+
+	@TearDown(Level.Trial)
+	public void clearOutputs() {
+		Log.clearOutputs();
+	}
+
+	@Benchmark
+	public void logInt() {
+		Log.message("Processed %d records", counter++);
+	}
+
+	@Benchmark
+	public void logLongs() {
+		int next = counter++;
+		Log.message("Edge 0x%x -> 0x%x", next * 0x9e3779b97f4a7c15L, next * 0x5555555555555555L);
+	}
+
+	@Benchmark
+	public void logObjects() {
+		int next = counter++;
+		Log.message("Module %s: %d nodes, %d edges (%.2f%%)", "libc.so", next, next << 2, next / 7.0);
+	}
+}
@@ -0,0 +1,226 @@
+package edu.uci.plrg.cfi.common.bench;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.uci.plrg.cfi.common.io.LittleEndianInputStream;
+
+/**
+ * Time to read a whole file of <code>fileMegabytes</code> as ints, as longs and as bulk 3-word records, through each
+ * kind of source:
+ *
+ * <pre>
+ * legacy          the pre-rework reader (see LegacyStreams), with its fixed 16 KB buffer
+ * stream-N        LittleEndianInputStream over a FileInputStream, with a buffer of N bytes
+ * mapped          LittleEndianInputStream in MAPPED mode
+ * channel-heap    FileChannel reads into a heap ByteBuffer
+ * channel-direct  FileChannel reads into a direct ByteBuffer
+ * </pre>
+ *
+ * With <code>cache=cold</code> the page cache is dropped before every invocation, which requires root on Linux.
+ * Throughput in MB/s is <code>fileMegabytes * 1000 / score</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReadBenchmark {
+
+	private static final int CHANNEL_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Little-endian reads straight from a <code>FileChannel</code>, as a baseline for the streams.
+	 */
+	private static class ChannelReader {
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+
+		ChannelReader(File file, boolean direct) throws IOException {
+			channel = new FileInputStream(file).getChannel();
+			buffer = (direct ? ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE) : ByteBuffer
+					.allocate(CHANNEL_BUFFER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.limit(0);
+		}
+
+		int readInt() throws IOException {
+			if (buffer.remaining() < 4)
+				fill();
+			return buffer.getInt();
+		}
+
+		long readLong() throws IOException {
+			if (buffer.remaining() < 8)
+				fill();
+			return buffer.getLong();
+		}
+
+		void readLongs(long dst[], int off, int len) throws IOException {
+			while (len > 0) {
+				if (buffer.remaining() < 8)
+					fill();
+				int count = Math.min(len, buffer.remaining() >> 3);
+				buffer.asLongBuffer().get(dst, off, count);
+				buffer.position(buffer.position() + (count << 3));
+				off += count;
+				len -= count;
+			}
+		}
+
+		void close() throws IOException {
+			channel.close();
+		}
+
+		private void fill() throws IOException {
+			buffer.compact();
+			if (channel.read(buffer) < 0)
+				throw new EOFException("End of channel reached.");
+			buffer.flip();
+		}
+	}
+
+	@Param({ "legacy", "stream-4096", "stream-16384", "stream-65536", "stream-262144", "mapped", "channel-heap",
+			"channel-direct" })
+	public String source;
+
+	@Param({ "warm", "cold" })
+	public String cache;
+
+	@Param({ "64" })
+	public int fileMegabytes;
+
+	private File file;
+	private long byteCount;
+
+	@Setup(Level.Trial)
+	public void createFile() throws IOException {
+		file = BenchmarkFiles.createDataFile(fileMegabytes);
+		byteCount = file.length();
+	}
+
+	@Setup(Level.Invocation)
+	public void prepareCache() throws IOException {
+		if (cache.equals("cold"))
+			BenchmarkFiles.dropPageCache();
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Benchmark
+	public long readInts() throws IOException {
+		long sum = 0L;
+		long count = byteCount >> 2;
+		if (source.startsWith("channel")) {
+			ChannelReader reader = new ChannelReader(file, source.equals("channel-direct"));
+			for (long i = 0; i < count; i++) {
+				sum += reader.readInt();
+			}
+			reader.close();
+		} else if (source.equals("legacy")) {
+			LegacyStreams.Reader reader = new LegacyStreams.Reader(new FileInputStream(file));
+			for (long i = 0; i < count; i++) {
+				sum += reader.readInt();
+			}
+			reader.close();
+		} else {
+			LittleEndianInputStream input = openStream();
+			for (long i = 0; i < count; i++) {
+				sum += input.readInt();
+			}
+			input.close();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long readLongs() throws IOException {
+		long sum = 0L;
+		long count = byteCount >> 3;
+		if (source.startsWith("channel")) {
+			ChannelReader reader = new ChannelReader(file, source.equals("channel-direct"));
+			for (long i = 0; i < count; i++) {
+				sum += reader.readLong();
+			}
+			reader.close();
+		} else if (source.equals("legacy")) {
+			LegacyStreams.Reader reader = new LegacyStreams.Reader(new FileInputStream(file));
+			for (long i = 0; i < count; i++) {
+				sum += reader.readLong();
+			}
+			reader.close();
+		} else {
+			LittleEndianInputStream input = openStream();
+			for (long i = 0; i < count; i++) {
+				sum += input.readLong();
+			}
+			input.close();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long readRecords() throws IOException {
+		int batchWords = BenchmarkFiles.BATCH_RECORDS * BenchmarkFiles.RECORD_WORDS;
+		long batch[] = new long[batchWords];
+		long sum = 0L;
+		long batchCount = (byteCount >> 3) / batchWords;
+		if (source.startsWith("channel")) {
+			ChannelReader reader = new ChannelReader(file, source.equals("channel-direct"));
+			for (long i = 0; i < batchCount; i++) {
+				reader.readLongs(batch, 0, batchWords);
+				sum += batch[0];
+			}
+			reader.close();
+		} else if (source.equals("legacy")) {
+			// the legacy reader has no bulk read, so this is its per-value path over whole records
+			LegacyStreams.Reader reader = new LegacyStreams.Reader(new FileInputStream(file));
+			for (long i = 0; i < batchCount; i++) {
+				for (int j = 0; j < batchWords; j++) {
+					batch[j] = reader.readLong();
+				}
+				sum += batch[0];
+			}
+			reader.close();
+		} else {
+			LittleEndianInputStream input = openStream();
+			for (long i = 0; i < batchCount; i++) {
+				input.readLongs(batch, 0, batchWords);
+				sum += batch[0];
+			}
+			input.close();
+		}
+		return sum;
+	}
+
+	private LittleEndianInputStream openStream() throws IOException {
+		if (source.equals("mapped"))
+			return new LittleEndianInputStream(file, LittleEndianInputStream.ReadMode.MAPPED);
+
+		int bufferSize = Integer.parseInt(source.substring(source.indexOf('-') + 1));
+		return new LittleEndianInputStream(file, bufferSize);
+	}
+}
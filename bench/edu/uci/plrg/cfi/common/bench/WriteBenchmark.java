@@ -0,0 +1,346 @@
+package edu.uci.plrg.cfi.common.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.uci.plrg.cfi.common.io.AsyncBufferWriter;
+import edu.uci.plrg.cfi.common.io.LittleEndianChannelOutputStream;
+import edu.uci.plrg.cfi.common.io.LittleEndianOutputStream;
+
+/**
+ * Time to write a file of <code>fileMegabytes</code> as ints, as longs and as bulk 3-word records, including the
+ * final flush into the page cache (but no fsync), through each kind of sink:
+ *
+ * <pre>
+ * legacy          the pre-rework writer (see LegacyStreams), with its fixed 16 KB buffer
+ * stream-N        LittleEndianOutputStream over a FileOutputStream, with a heap buffer of N bytes
+ * channel-stream  LittleEndianChannelOutputStream, with a direct buffer
+ * channel-heap    FileChannel writes from a heap ByteBuffer
+ * channel-direct  FileChannel writes from a direct ByteBuffer
+ * mapped          puts into a MappedByteBuffer over the preallocated file
+ * async-N         LittleEndianOutputStream on an AsyncBufferWriter with 4 buffers of N bytes
+ * </pre>
+ *
+ * The sinks other than <code>LittleEndianOutputStream</code> are adapted to <code>WordSink</code>; each parameter
+ * combination runs in its own fork, so that call site only ever sees one implementation. Throughput in MB/s is
+ * <code>fileMegabytes * 1000 / score</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WriteBenchmark {
+
+	private static final int ASYNC_BUFFER_COUNT = 4;
+	private static final int CHANNEL_BUFFER_SIZE = 1 << 16;
+	private static final int MAPPED_WINDOW_SIZE = 1 << 28;
+
+	private interface WordSink {
+		void writeInt(int data) throws IOException;
+
+		void writeLong(long data) throws IOException;
+
+		void writeLongs(long data[]) throws IOException;
+
+		void close() throws IOException;
+	}
+
+	private static class LegacySink implements WordSink {
+		private final LegacyStreams.Writer writer;
+
+		LegacySink(File file) throws IOException {
+			writer = new LegacyStreams.Writer(new FileOutputStream(file));
+		}
+
+		@Override
+		public void writeInt(int data) throws IOException {
+			writer.writeInt(data);
+		}
+
+		@Override
+		public void writeLong(long data) throws IOException {
+			writer.writeLong(data);
+		}
+
+		@Override
+		public void writeLongs(long data[]) throws IOException {
+			for (long word : data) { // no bulk write
+				writer.writeLong(word);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			writer.close();
+		}
+	}
+
+	private static class ChannelStreamSink implements WordSink {
+		private final LittleEndianChannelOutputStream output;
+
+		ChannelStreamSink(File file) throws IOException {
+			output = new LittleEndianChannelOutputStream(file);
+		}
+
+		@Override
+		public void writeInt(int data) throws IOException {
+			output.writeInt(data);
+		}
+
+		@Override
+		public void writeLong(long data) throws IOException {
+			output.writeLong(data);
+		}
+
+		@Override
+		public void writeLongs(long data[]) throws IOException {
+			for (long word : data) { // no bulk write of longs
+				output.writeLong(word);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			output.close();
+		}
+	}
+
+	/**
+	 * Little-endian writes straight to a <code>FileChannel</code>, as a baseline for the streams.
+	 */
+	private static class ChannelSink implements WordSink {
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+
+		ChannelSink(File file, boolean direct) throws IOException {
+			channel = new FileOutputStream(file).getChannel();
+			buffer = (direct ? ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE) : ByteBuffer
+					.allocate(CHANNEL_BUFFER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		@Override
+		public void writeInt(int data) throws IOException {
+			if (buffer.remaining() < 4)
+				drain();
+			buffer.putInt(data);
+		}
+
+		@Override
+		public void writeLong(long data) throws IOException {
+			if (buffer.remaining() < 8)
+				drain();
+			buffer.putLong(data);
+		}
+
+		@Override
+		public void writeLongs(long data[]) throws IOException {
+			int off = 0;
+			while (off < data.length) {
+				if (buffer.remaining() < 8)
+					drain();
+				int count = Math.min(data.length - off, buffer.remaining() >> 3);
+				buffer.asLongBuffer().put(data, off, count);
+				buffer.position(buffer.position() + (count << 3));
+				off += count;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			drain();
+			channel.close();
+		}
+
+		private void drain() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Little-endian puts into the file mapped in windows of <code>MAPPED_WINDOW_SIZE</code>, which is grown to its
+	 * full length up front.
+	 */
+	private static class MappedSink implements WordSink {
+		private final RandomAccessFile file;
+		private final FileChannel channel;
+		private final long length;
+		private ByteBuffer window;
+		private long windowEnd = 0L;
+
+		MappedSink(File file, long length) throws IOException {
+			this.file = new RandomAccessFile(file, "rw");
+			this.file.setLength(length);
+			this.channel = this.file.getChannel();
+			this.length = length;
+			map();
+		}
+
+		@Override
+		public void writeInt(int data) throws IOException {
+			if (window.remaining() < 4)
+				map();
+			window.putInt(data);
+		}
+
+		@Override
+		public void writeLong(long data) throws IOException {
+			if (window.remaining() < 8)
+				map();
+			window.putLong(data);
+		}
+
+		@Override
+		public void writeLongs(long data[]) throws IOException {
+			int off = 0;
+			while (off < data.length) {
+				if (window.remaining() < 8)
+					map();
+				int count = Math.min(data.length - off, window.remaining() >> 3);
+				window.asLongBuffer().put(data, off, count);
+				window.position(window.position() + (count << 3));
+				off += count;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			window = null;
+			file.close();
+		}
+
+		private void map() throws IOException {
+			long size = Math.min(MAPPED_WINDOW_SIZE, length - windowEnd);
+			window = channel.map(FileChannel.MapMode.READ_WRITE, windowEnd, size).order(ByteOrder.LITTLE_ENDIAN);
+			windowEnd += size;
+		}
+	}
+
+	@Param({ "legacy", "stream-4096", "stream-16384", "stream-65536", "channel-stream", "channel-heap",
+			"channel-direct", "mapped", "async-65536" })
+	public String sink;
+
+	@Param({ "64" })
+	public int fileMegabytes;
+
+	private File file;
+	private long byteCount;
+	private long batch[];
+
+	@Setup(Level.Trial)
+	public void createFile() throws IOException {
+		file = BenchmarkFiles.createTempFile("bench-write");
+		byteCount = (long) fileMegabytes << 20;
+		batch = new long[BenchmarkFiles.BATCH_RECORDS * BenchmarkFiles.RECORD_WORDS];
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = 0x9e3779b97f4a7c15L * (i + 1);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Benchmark
+	public void writeInts() throws IOException {
+		long count = byteCount >> 2;
+		if (isStream()) {
+			LittleEndianOutputStream output = openStream();
+			for (long i = 0; i < count; i++) {
+				output.writeInt((int) i);
+			}
+			output.close();
+		} else {
+			WordSink output = openSink();
+			for (long i = 0; i < count; i++) {
+				output.writeInt((int) i);
+			}
+			output.close();
+		}
+	}
+
+	@Benchmark
+	public void writeLongs() throws IOException {
+		long count = byteCount >> 3;
+		if (isStream()) {
+			LittleEndianOutputStream output = openStream();
+			for (long i = 0; i < count; i++) {
+				output.writeLong(i);
+			}
+			output.close();
+		} else {
+			WordSink output = openSink();
+			for (long i = 0; i < count; i++) {
+				output.writeLong(i);
+			}
+			output.close();
+		}
+	}
+
+	@Benchmark
+	public void writeRecords() throws IOException {
+		long batchCount = (byteCount >> 3) / batch.length;
+		if (isStream()) {
+			LittleEndianOutputStream output = openStream();
+			for (long i = 0; i < batchCount; i++) {
+				output.writeLongs(batch);
+			}
+			output.close();
+		} else {
+			WordSink output = openSink();
+			for (long i = 0; i < batchCount; i++) {
+				output.writeLongs(batch);
+			}
+			output.close();
+		}
+	}
+
+	private boolean isStream() {
+		return sink.startsWith("stream") || sink.startsWith("async");
+	}
+
+	private LittleEndianOutputStream openStream() throws IOException {
+		int bufferSize = Integer.parseInt(sink.substring(sink.indexOf('-') + 1));
+		if (sink.startsWith("async")) {
+			return new LittleEndianOutputStream(new AsyncBufferWriter(new FileOutputStream(file), "file:"
+					+ file.getAbsolutePath(), bufferSize, ASYNC_BUFFER_COUNT));
+		}
+		return new LittleEndianOutputStream(file, bufferSize);
+	}
+
+	private WordSink openSink() throws IOException {
+		if (sink.equals("legacy"))
+			return new LegacySink(file);
+		if (sink.equals("channel-stream"))
+			return new ChannelStreamSink(file);
+		if (sink.equals("mapped"))
+			return new MappedSink(file, byteCount);
+		return new ChannelSink(file, sink.equals("channel-direct"));
+	}
+}
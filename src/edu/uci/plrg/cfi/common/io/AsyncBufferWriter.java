@@ -0,0 +1,261 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes filled buffers to an <code>OutputStream</code> on a background thread. A fixed set of buffers rotates
+ * between the producer and the writer thread: the producer fills one while the writer thread drains the others, and
+ * the producer only blocks when every other buffer is still queued for writing. A failed write is rethrown to the
+ * producer as an <code>IOException</code> on its next exchange, flush or close. Use with
+ * <code>LittleEndianOutputStream(AsyncBufferWriter)</code>.
+ */
+public class AsyncBufferWriter {
+
+	public static class Buffer {
+		final byte data[];
+		final ByteBuffer view;
+		int length = 0;
+
+		Buffer(int size) {
+			data = new byte[size];
+			view = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	private class WriterThread extends Thread {
+		WriterThread() {
+			super("AsyncBufferWriter " + description);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Buffer buffer = pending.take();
+					if (buffer == END_OF_STREAM)
+						break;
+
+					long start = System.nanoTime();
+					try {
+						if (failure == null)
+							output.write(buffer.data, 0, buffer.length);
+					} catch (Throwable t) { // keep cycling buffers, so the producer finds the failure, not a hang
+						failure = t;
+					}
+					writeNanos += (System.nanoTime() - start);
+					bytesWritten += buffer.length;
+
+					buffer.length = 0;
+					free.put(buffer);
+					synchronized (AsyncBufferWriter.this) {
+						buffersWritten++;
+						AsyncBufferWriter.this.notifyAll();
+					}
+				}
+			} catch (InterruptedException e) {
+				failure = new IOException("Interrupted while writing " + description);
+			} finally {
+				synchronized (AsyncBufferWriter.this) {
+					AsyncBufferWriter.this.notifyAll();
+				}
+			}
+		}
+	}
+
+	private static final Buffer END_OF_STREAM = new Buffer(0);
+	private static final long LIVENESS_CHECK_MILLIS = 100L;
+
+	public final String description;
+
+	private final OutputStream output;
+	private final BlockingQueue<Buffer> free;
+	private final BlockingQueue<Buffer> pending;
+	private final WriterThread writer;
+	private final int bufferCount;
+
+	private volatile Throwable failure = null;
+	private boolean closed = false;
+
+	// producer-side statistics
+	private long buffersSubmitted = 0L;
+	private long blockedCount = 0L;
+	private long blockedNanos = 0L;
+
+	// writer-side statistics
+	private long buffersWritten = 0L;
+	private volatile long bytesWritten = 0L;
+	private volatile long writeNanos = 0L;
+
+	public AsyncBufferWriter(OutputStream output, String description, int bufferSize, int bufferCount) {
+		if (bufferCount < 2)
+			throw new IllegalArgumentException("Asynchronous writing requires at least 2 buffers");
+
+		this.output = output;
+		this.description = description;
+		this.bufferCount = bufferCount;
+		this.free = new ArrayBlockingQueue<Buffer>(bufferCount);
+		this.pending = new ArrayBlockingQueue<Buffer>(bufferCount + 1);
+		for (int i = 0; i < bufferCount; i++) {
+			free.add(new Buffer(bufferSize));
+		}
+
+		writer = new WriterThread();
+		writer.start();
+	}
+
+	/**
+	 * Take the first buffer for the producer to fill.
+	 */
+	Buffer open() throws IOException {
+		return takeFree();
+	}
+
+	/**
+	 * Queue <code>full</code> for writing and return an empty buffer, blocking if all other buffers are still queued.
+	 */
+	Buffer exchange(Buffer full) throws IOException {
+		submit(full);
+		return takeFree();
+	}
+
+	/**
+	 * Queue <code>partial</code> and wait until everything queued so far has been written and flushed.
+	 */
+	Buffer sync(Buffer partial) throws IOException {
+		checkOpen();
+		if (partial.length > 0) {
+			submit(partial);
+			partial = takeFree();
+		}
+
+		synchronized (this) {
+			while ((buffersWritten < buffersSubmitted) && writer.isAlive()) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while flushing " + description);
+				}
+			}
+		}
+		checkError();
+		output.flush();
+		return partial;
+	}
+
+	/**
+	 * Queue <code>last</code>, drain the queue, stop the writer thread and close the output.
+	 */
+	void close(Buffer last) throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		if (last.length > 0)
+			enqueue(last); // a failure is reported below, once the output is closed
+		try {
+			pending.put(END_OF_STREAM);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while closing " + description);
+		}
+
+		try {
+			checkError();
+			output.flush();
+		} finally {
+			output.close();
+		}
+	}
+
+	public int getBufferCount() {
+		return bufferCount;
+	}
+
+	public synchronized long getBuffersWritten() {
+		return buffersWritten;
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Number of times the producer had to wait for a free buffer.
+	 */
+	public long getBlockedCount() {
+		return blockedCount;
+	}
+
+	/**
+	 * Total time the producer spent waiting for a free buffer.
+	 */
+	public long getBlockedNanos() {
+		return blockedNanos;
+	}
+
+	/**
+	 * Total time the writer thread spent in <code>OutputStream.write()</code>.
+	 */
+	public long getWriteNanos() {
+		return writeNanos;
+	}
+
+	private void submit(Buffer buffer) throws IOException {
+		checkOpen();
+		checkError();
+		enqueue(buffer);
+	}
+
+	private void enqueue(Buffer buffer) {
+		synchronized (this) {
+			buffersSubmitted++;
+		}
+		pending.add(buffer); // never full: there are fewer buffers than slots
+	}
+
+	/**
+	 * Waits for the writer thread to return a buffer, failing instead if the writer thread has died.
+	 */
+	private Buffer takeFree() throws IOException {
+		checkOpen();
+		Buffer buffer = free.poll();
+		if (buffer == null) {
+			long start = System.nanoTime();
+			try {
+				while ((buffer = free.poll(LIVENESS_CHECK_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+					if (!writer.isAlive()) {
+						checkError();
+						throw new IOException("The writer thread of " + description + " has stopped");
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for a free buffer on " + description);
+			}
+			blockedCount++;
+			blockedNanos += (System.nanoTime() - start);
+		}
+		checkError();
+		return buffer;
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed)
+			throw new IOException("Cannot write to " + description + " after it is closed");
+	}
+
+	private void checkError() throws IOException {
+		Throwable cause = failure;
+		if (cause != null)
+			throw new IOException("Asynchronous write failed on " + description, cause);
+	}
+}
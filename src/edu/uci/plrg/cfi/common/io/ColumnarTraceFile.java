@@ -0,0 +1,242 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Column-oriented storage for fixed-width trace records: word <code>i</code> of every record is stored contiguously
+ * in column <code>i</code>, so a scan that needs only some of the words reads only those columns. Layout (all values
+ * little-endian):
+ *
+ * <pre>
+ * header:  int MAGIC, int VERSION, int wordsPerRecord, int 0, long recordCount
+ * columns: long column0[recordCount], long column1[recordCount], ...
+ * </pre>
+ *
+ * Row-oriented .dat files are converted with <code>convert()</code>.
+ */
+public class ColumnarTraceFile {
+
+	/**
+	 * Reads the requested columns of each record in lockstep.
+	 */
+	public class Cursor {
+		private final LittleEndianInputStream columns[];
+		private final long batch[][];
+		private int batchIndex = 0;
+		private int batchLength = 0;
+		private long recordIndex = 0L;
+
+		Cursor(int columnIndices[]) throws IOException {
+			columns = new LittleEndianInputStream[columnIndices.length];
+			batch = new long[columnIndices.length][CURSOR_BATCH_SIZE];
+			for (int i = 0; i < columnIndices.length; i++) {
+				columns[i] = openColumn(columnIndices[i]);
+			}
+		}
+
+		public boolean next() throws IOException {
+			if (++batchIndex < batchLength)
+				return true;
+			if (recordIndex == recordCount)
+				return false;
+
+			batchLength = (int) Math.min(CURSOR_BATCH_SIZE, recordCount - recordIndex);
+			for (int i = 0; i < columns.length; i++) {
+				columns[i].readLongs(batch[i], 0, batchLength);
+			}
+			recordIndex += batchLength;
+			batchIndex = 0;
+			return true;
+		}
+
+		/**
+		 * Word of the current record in the <code>i</code>th requested column.
+		 */
+		public long getWord(int i) {
+			return batch[i][batchIndex];
+		}
+
+		public void close() throws IOException {
+			for (LittleEndianInputStream column : columns) {
+				column.close();
+			}
+		}
+	}
+
+	private class ColumnInputStream extends InputStream {
+		private final ByteBuffer single = ByteBuffer.allocate(1);
+		private long position;
+		private final long end;
+
+		ColumnInputStream(long start, long end) {
+			this.position = start;
+			this.end = end;
+		}
+
+		@Override
+		public int read() throws IOException {
+			single.clear();
+			return (read(single) < 0) ? -1 : (single.get(0) & 0xff);
+		}
+
+		@Override
+		public int read(byte dst[], int off, int len) throws IOException {
+			return read(ByteBuffer.wrap(dst, off, len));
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, end - position);
+		}
+
+		private int read(ByteBuffer dst) throws IOException {
+			if (position >= end)
+				return -1;
+			if (dst.remaining() > (end - position))
+				dst.limit(dst.position() + (int) (end - position));
+
+			int count = channel.read(dst, position);
+			if (count > 0)
+				position += count;
+			return count;
+		}
+	}
+
+	static final int MAGIC = 0x43545343; // "CSTC"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 24;
+
+	private static final int CURSOR_BATCH_SIZE = 1 << 10;
+	private static final int CONVERT_COLUMN_BUFFER_SIZE = 1 << 20;
+
+	public final String description;
+
+	private final FileChannel channel;
+	private final int wordsPerRecord;
+	private final long recordCount;
+
+	public ColumnarTraceFile(File file) throws IOException {
+		description = "file:" + file.getAbsolutePath();
+		channel = new FileInputStream(file).getChannel();
+
+		boolean opened = false;
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining()) {
+				if (channel.read(header, header.position()) < 0)
+					throw new TraceDataSourceException(description + " is too short to be a columnar trace file");
+			}
+			if (header.getInt(0) != MAGIC)
+				throw new TraceDataSourceException(description + " is not a columnar trace file");
+			if (header.getInt(4) != VERSION)
+				throw new TraceDataSourceException(String.format("%s has unsupported columnar trace version %d",
+						description, header.getInt(4)));
+
+			wordsPerRecord = header.getInt(8);
+			recordCount = header.getLong(16);
+			if ((wordsPerRecord < 1) || (recordCount < 0L))
+				throw new TraceDataSourceException(String.format("%s has an invalid layout: %d records of %d words",
+						description, recordCount, wordsPerRecord));
+			// compare in records, since the byte length of a corrupt count can overflow
+			long fileSize = channel.size();
+			if (recordCount > (((fileSize - HEADER_SIZE) >> 3) / wordsPerRecord))
+				throw new TraceDataSourceException(String.format(
+						"%s is truncated: %d records of %d words do not fit in %d bytes", description, recordCount,
+						wordsPerRecord, fileSize));
+			opened = true;
+		} finally {
+			if (!opened)
+				channel.close();
+		}
+	}
+
+	public int getWordsPerRecord() {
+		return wordsPerRecord;
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Sequential reader over one column. Only that column's bytes are read from the file.
+	 */
+	public LittleEndianInputStream openColumn(int column) throws IOException {
+		if ((column < 0) || (column >= wordsPerRecord))
+			throw new IllegalArgumentException(String.format("Column %d is out of range for %s (%d columns)", column,
+					description, wordsPerRecord));
+
+		long start = HEADER_SIZE + ((column * recordCount) << 3);
+		return new LittleEndianInputStream(new ColumnInputStream(start, start + (recordCount << 3)), String.format(
+				"%s column %d", description, column), 1 << 16);
+	}
+
+	public Cursor openColumns(int... columns) throws IOException {
+		return new Cursor(columns);
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Converts a row-oriented file of <code>wordsPerRecord</code>-word records into the columnar layout in a single
+	 * pass. A trailing partial record is dropped.
+	 */
+	public static void convert(File rowFile, int wordsPerRecord, File columnarFile) throws IOException {
+		TraceRecordReader input = new TraceRecordReader(rowFile, wordsPerRecord);
+		RandomAccessFile output = new RandomAccessFile(columnarFile, "rw");
+		try {
+			FileChannel outputChannel = output.getChannel();
+			outputChannel.truncate(0L);
+			long recordCount = input.getRecordCount();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(wordsPerRecord).putInt(0).putLong(recordCount).flip();
+			writeFully(outputChannel, header, 0L);
+
+			ByteBuffer columns[] = new ByteBuffer[wordsPerRecord];
+			long columnPositions[] = new long[wordsPerRecord];
+			for (int i = 0; i < wordsPerRecord; i++) {
+				columns[i] = ByteBuffer.allocateDirect(CONVERT_COLUMN_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				columnPositions[i] = HEADER_SIZE + ((i * recordCount) << 3);
+			}
+
+			while (input.hasNext()) {
+				TraceRecordReader.Record record = input.next();
+				for (int i = 0; i < wordsPerRecord; i++) {
+					if (!columns[i].hasRemaining())
+						columnPositions[i] += drainColumn(outputChannel, columns[i], columnPositions[i]);
+					columns[i].putLong(record.getWord(i));
+				}
+			}
+			for (int i = 0; i < wordsPerRecord; i++) {
+				drainColumn(outputChannel, columns[i], columnPositions[i]);
+			}
+		} finally {
+			input.close();
+			output.close();
+		}
+	}
+
+	private static int drainColumn(FileChannel channel, ByteBuffer column, long position) throws IOException {
+		column.flip();
+		int length = column.remaining();
+		writeFully(channel, column, position);
+		column.clear();
+		return length;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+		while (data.hasRemaining()) {
+			position += channel.write(data, position);
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the block-compressed trace container written by <code>CompressedTraceOutputStream</code>. The block index is
+ * loaded from the footer on open. Blocks are decoded with positional reads, so <code>readBlock()</code> may be called
+ * concurrently to decode in parallel, and <code>openStream()</code> starts a sequential stream at any raw offset.
+ */
+public class CompressedTraceFile {
+
+	private class BlockInputStream extends InputStream {
+		private final byte block[] = new byte[blockSize];
+		private int blockLength = 0;
+		private int blockIndex = 0;
+		private int nextBlock;
+
+		BlockInputStream(long rawOffset) throws IOException {
+			if (rawOffset < rawLength) {
+				nextBlock = findBlock(rawOffset);
+				loadNextBlock();
+				blockIndex = (int) (rawOffset - blockRawOffsets[nextBlock - 1]);
+			} else {
+				nextBlock = blockCount;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			if ((blockIndex == blockLength) && !loadNextBlock())
+				return -1;
+			return block[blockIndex++] & 0xff;
+		}
+
+		@Override
+		public int read(byte dst[], int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if ((blockIndex == blockLength) && !loadNextBlock())
+				return -1;
+
+			int count = Math.min(len, blockLength - blockIndex);
+			System.arraycopy(block, blockIndex, dst, off, count);
+			blockIndex += count;
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return blockLength - blockIndex;
+		}
+
+		private boolean loadNextBlock() throws IOException {
+			if (nextBlock >= blockCount)
+				return false;
+
+			blockLength = readBlock(nextBlock++, block);
+			blockIndex = 0;
+			return true;
+		}
+	}
+
+	public final String description;
+
+	private final FileChannel channel;
+	private final int blockSize;
+	private final int blockCount;
+	private final long rawLength;
+	private final long blockFileOffsets[];
+	private final int blockCompressedLengths[];
+	private final long blockRawOffsets[];
+
+	public static boolean isCompressed(File file) throws IOException {
+		if (file.length() < (12 + CompressedTraceOutputStream.TRAILER_SIZE))
+			return false;
+
+		LittleEndianInputStream input = new LittleEndianInputStream(file, 16);
+		try {
+			return input.readInt() == CompressedTraceOutputStream.MAGIC;
+		} finally {
+			input.close();
+		}
+	}
+
+	public CompressedTraceFile(File file) throws IOException {
+		description = "file:" + file.getAbsolutePath();
+		channel = new FileInputStream(file).getChannel();
+
+		boolean opened = false;
+		try {
+			long fileSize = channel.size();
+			if (fileSize < (12 + CompressedTraceOutputStream.TRAILER_SIZE))
+				throw new TraceDataSourceException(description + " is too short to be a compressed trace file");
+
+			ByteBuffer header = read(0L, 12);
+			ByteBuffer trailer = read(fileSize - CompressedTraceOutputStream.TRAILER_SIZE,
+					CompressedTraceOutputStream.TRAILER_SIZE);
+			if ((header.getInt(0) != CompressedTraceOutputStream.MAGIC)
+					|| (trailer.getInt(8) != CompressedTraceOutputStream.MAGIC))
+				throw new TraceDataSourceException(description + " is not a compressed trace file");
+			if (header.getInt(4) != CompressedTraceOutputStream.VERSION)
+				throw new TraceDataSourceException(String.format("%s has unsupported compressed trace version %d",
+						description, header.getInt(4)));
+			blockSize = header.getInt(8);
+			if ((blockSize < 1) || (blockSize > CompressedTraceOutputStream.MAXIMUM_BLOCK_SIZE))
+				throw new TraceDataSourceException(String.format("%s has invalid block size %d", description,
+						blockSize));
+
+			long indexEnd = fileSize - CompressedTraceOutputStream.TRAILER_SIZE;
+			long indexOffset = trailer.getLong(0);
+			if ((indexOffset < 12L) || ((indexOffset + 12L) > indexEnd))
+				throw new TraceDataSourceException(String.format("%s has index offset %d outside the file",
+						description, indexOffset));
+			ByteBuffer index = read(indexOffset, 12);
+			blockCount = index.getInt(0);
+			rawLength = index.getLong(4);
+			if ((blockCount < 0) || ((indexOffset + 12L + (blockCount * 16L)) > indexEnd) || (rawLength < 0L))
+				throw new TraceDataSourceException(String.format("%s has a corrupt index (%d blocks, %d raw bytes)",
+						description, blockCount, rawLength));
+
+			index = read(indexOffset + 12, blockCount * 16);
+			blockFileOffsets = new long[blockCount];
+			blockCompressedLengths = new int[blockCount];
+			blockRawOffsets = new long[blockCount];
+			long rawOffset = 0L;
+			for (int i = 0; i < blockCount; i++) {
+				blockFileOffsets[i] = index.getLong();
+				blockCompressedLengths[i] = index.getInt();
+				blockRawOffsets[i] = rawOffset;
+				int blockRawLength = index.getInt();
+				rawOffset += blockRawLength;
+				if ((blockFileOffsets[i] < 12L) || (blockCompressedLengths[i] < 0)
+						|| ((blockFileOffsets[i] + CompressedTraceOutputStream.BLOCK_HEADER_SIZE
+								+ blockCompressedLengths[i]) > indexOffset) || (blockRawLength < 0)
+						|| (blockRawLength > blockSize))
+					throw new TraceDataSourceException(String.format("%s has a corrupt index entry for block %d",
+							description, i));
+			}
+			if (rawOffset != rawLength)
+				throw new TraceDataSourceException(String.format(
+						"%s has a corrupt index: the blocks hold %d raw bytes instead of %d", description, rawOffset,
+						rawLength));
+			opened = true;
+		} finally {
+			if (!opened)
+				channel.close();
+		}
+	}
+
+	public long getRawLength() {
+		return rawLength;
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public long getBlockRawOffset(int block) {
+		return blockRawOffsets[block];
+	}
+
+	public int getBlockRawLength(int block) {
+		long end = ((block + 1) < blockCount) ? blockRawOffsets[block + 1] : rawLength;
+		return (int) (end - blockRawOffsets[block]);
+	}
+
+	/**
+	 * Index of the block containing raw byte <code>rawOffset</code>; for record <code>r</code> of a file of
+	 * <code>n</code>-word records, pass <code>r * n * 8</code>.
+	 */
+	public int findBlock(long rawOffset) {
+		if ((rawOffset < 0L) || (rawOffset >= rawLength))
+			throw new IllegalArgumentException(String.format("Raw offset %d is out of range for %s (%d bytes)",
+					rawOffset, description, rawLength));
+
+		int low = 0, high = blockCount - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (blockRawOffsets[middle] <= rawOffset)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Decodes <code>block</code> into <code>dst</code>, which must hold <code>getBlockSize()</code> bytes, and returns
+	 * its raw length. Safe to call from several threads at once. A block that does not inflate to exactly the raw
+	 * length recorded in the index is reported as corrupt.
+	 */
+	public int readBlock(int block, byte dst[]) throws IOException {
+		ByteBuffer compressed = read(blockFileOffsets[block] + CompressedTraceOutputStream.BLOCK_HEADER_SIZE,
+				blockCompressedLengths[block]);
+
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed.array(), 0, blockCompressedLengths[block]);
+			int length = 0;
+			while (!inflater.finished()) {
+				int count = inflater.inflate(dst, length, dst.length - length);
+				// a stalled inflater never finishes: it wants a dictionary, more input, or more room
+				if ((count == 0)
+						&& (inflater.needsDictionary() || inflater.needsInput() || (length == dst.length)))
+					throw new TraceDataSourceException(String.format("Block %d of %s is corrupt", block, description));
+				length += count;
+			}
+			if (length != getBlockRawLength(block))
+				throw new TraceDataSourceException(String.format("Block %d of %s inflates to %d bytes instead of %d",
+						block, description, length, getBlockRawLength(block)));
+			return length;
+		} catch (DataFormatException e) {
+			throw new TraceDataSourceException(String.format("Block %d of %s is corrupt", block, description), e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	public InputStream openStream(long rawOffset) throws IOException {
+		return new BlockInputStream(rawOffset);
+	}
+
+	public LittleEndianInputStream openInput(long rawOffset) throws IOException {
+		return new LittleEndianInputStream(openStream(rawOffset), description);
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new TraceDataSourceException(String.format("%s is truncated at offset %d", description, position
+						+ buffer.position()));
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
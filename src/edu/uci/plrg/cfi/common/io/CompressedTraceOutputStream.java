@@ -0,0 +1,143 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the block-compressed trace container read by <code>CompressedTraceFile</code>. Raw bytes are cut into blocks
+ * of <code>blockSize</code> bytes, and each block is deflated on its own so that it can be decoded independently.
+ * Wrap in a <code>LittleEndianOutputStream</code> to write trace words. Layout (all values little-endian):
+ *
+ * <pre>
+ * header:  int MAGIC, int VERSION, int blockSize
+ * blocks:  { int compressedLength, int rawLength, byte compressed[compressedLength] } ...
+ * index:   int blockCount, long rawLength, { long blockFileOffset, int compressedLength, int rawLength } ...
+ * trailer: long indexFileOffset, int MAGIC
+ * </pre>
+ *
+ * The default block size is a multiple of both the 2-word and the 3-word record size, so records never straddle a
+ * block.
+ */
+public class CompressedTraceOutputStream extends OutputStream {
+
+	static final int MAGIC = 0x5a545343; // "CSTZ"
+	static final int VERSION = 1;
+	static final int BLOCK_HEADER_SIZE = 8;
+	static final int TRAILER_SIZE = 12;
+
+	public static final int DEFAULT_BLOCK_SIZE = 3 << 17;
+	public static final int MAXIMUM_BLOCK_SIZE = 1 << 26;
+
+	private final LittleEndianOutputStream output;
+	private final Deflater deflater;
+	private final int blockSize;
+
+	private final byte block[];
+	private int blockIndex = 0;
+	private byte compressed[];
+
+	private final List<long[]> index = new ArrayList<long[]>();
+	private long rawLength = 0L;
+	private boolean closed = false;
+
+	public CompressedTraceOutputStream(File file) throws IOException {
+		this(new LittleEndianOutputStream(file, 1 << 16), DEFAULT_BLOCK_SIZE, Deflater.BEST_SPEED);
+	}
+
+	public CompressedTraceOutputStream(LittleEndianOutputStream output, int blockSize, int compressionLevel)
+			throws IOException {
+		if ((blockSize < 1) || (blockSize > MAXIMUM_BLOCK_SIZE))
+			throw new IllegalArgumentException(String.format("Block size must be 1 to %d bytes (not %d)",
+					MAXIMUM_BLOCK_SIZE, blockSize));
+
+		this.output = output;
+		this.blockSize = blockSize;
+		this.deflater = new Deflater(compressionLevel);
+		this.block = new byte[blockSize];
+		this.compressed = new byte[blockSize + (blockSize >> 3) + 64];
+
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeInt(blockSize);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (blockIndex == blockSize)
+			writeBlock();
+		block[blockIndex++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte data[], int off, int len) throws IOException {
+		while (len > 0) {
+			if (blockIndex == blockSize)
+				writeBlock();
+
+			int count = Math.min(len, blockSize - blockIndex);
+			System.arraycopy(data, off, block, blockIndex, count);
+			blockIndex += count;
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Flushes the underlying output only. A partial block stays buffered, since every block except the last must be
+	 * full for offset lookups to work.
+	 */
+	@Override
+	public void flush() throws IOException {
+		output.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		if (blockIndex > 0)
+			writeBlock();
+
+		long indexOffset = output.position();
+		output.writeInt(index.size());
+		output.writeLong(rawLength);
+		for (long entry[] : index) {
+			output.writeLong(entry[0]);
+			output.writeInt((int) entry[1]);
+			output.writeInt((int) entry[2]);
+		}
+		output.writeLong(indexOffset);
+		output.writeInt(MAGIC);
+		output.close();
+		deflater.end();
+	}
+
+	private void writeBlock() throws IOException {
+		deflater.reset();
+		deflater.setInput(block, 0, blockIndex);
+		deflater.finish();
+		int compressedLength = 0;
+		while (!deflater.finished()) {
+			if (compressedLength == compressed.length) {
+				byte grown[] = new byte[compressed.length << 1];
+				System.arraycopy(compressed, 0, grown, 0, compressedLength);
+				compressed = grown;
+			}
+			compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+		}
+
+		index.add(new long[] { output.position(), compressedLength, blockIndex });
+		output.writeInt(compressedLength);
+		output.writeInt(blockIndex);
+		output.writeBytes(compressed, 0, compressedLength);
+
+		rawLength += blockIndex;
+		blockIndex = 0;
+	}
+}
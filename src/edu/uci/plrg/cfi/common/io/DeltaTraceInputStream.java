@@ -0,0 +1,89 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads trace words written by <code>DeltaTraceOutputStream</code>.
+ */
+public class DeltaTraceInputStream {
+
+	private final LittleEndianInputStream input;
+	public final int wordsPerRecord;
+
+	private final long previous[];
+	private int column = 0;
+
+	/**
+	 * True if <code>file</code> starts with the delta encoding header. Raw .dat files do not have a header.
+	 */
+	public static boolean isDeltaEncoded(File file) throws IOException {
+		if (file.length() < DeltaTraceOutputStream.HEADER_SIZE)
+			return false;
+
+		LittleEndianInputStream input = new LittleEndianInputStream(file, DeltaTraceOutputStream.HEADER_SIZE + 4);
+		try {
+			return (input.readInt() == DeltaTraceOutputStream.MAGIC)
+					&& (input.readInt() == DeltaTraceOutputStream.ENCODING_DELTA_VARINT);
+		} finally {
+			input.close();
+		}
+	}
+
+	public DeltaTraceInputStream(File file) throws IOException {
+		this(new LittleEndianInputStream(file));
+	}
+
+	/**
+	 * Reads and checks the header, closing <code>input</code> if it is not a valid delta encoded trace.
+	 */
+	public DeltaTraceInputStream(LittleEndianInputStream input) throws IOException {
+		this.input = input;
+
+		boolean opened = false;
+		try {
+			if (!input.ready(DeltaTraceOutputStream.HEADER_SIZE) || (input.readInt() != DeltaTraceOutputStream.MAGIC))
+				throw new TraceDataSourceException(input.description + " is not a delta encoded trace file");
+			int encoding = input.readInt();
+			if (encoding != DeltaTraceOutputStream.ENCODING_DELTA_VARINT)
+				throw new TraceDataSourceException(String.format("%s has unsupported trace encoding %d",
+						input.description, encoding));
+
+			wordsPerRecord = input.readInt();
+			if ((wordsPerRecord < 1) || (wordsPerRecord > DeltaTraceOutputStream.MAXIMUM_WORDS_PER_RECORD))
+				throw new TraceDataSourceException(String.format("%s has invalid record width %d", input.description,
+						wordsPerRecord));
+			previous = new long[wordsPerRecord];
+			opened = true;
+		} finally {
+			if (!opened)
+				input.close();
+		}
+	}
+
+	public boolean ready() throws IOException {
+		return input.ready();
+	}
+
+	public long readLong() throws IOException {
+		long word = previous[column] + input.readSignedVarLong();
+		previous[column] = word;
+		if (++column == wordsPerRecord)
+			column = 0;
+		return word;
+	}
+
+	public void readRecord(long words[]) throws IOException {
+		if (column != 0)
+			throw new IllegalStateException(String.format("Cannot read a whole record at word %d of a record", column));
+
+		for (int i = 0; i < wordsPerRecord; i++) {
+			words[i] = previous[i] + input.readSignedVarLong();
+			previous[i] = words[i];
+		}
+	}
+
+	public void close() throws IOException {
+		input.close();
+	}
+}
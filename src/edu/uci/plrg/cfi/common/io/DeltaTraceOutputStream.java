@@ -0,0 +1,72 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes trace words as per-column deltas in zig-zag varint form. Word <code>i</code> of each record is stored as its
+ * difference from word <code>i</code> of the previous record, so sorted or clustered addresses and hashes take a few
+ * bytes instead of 8. The file starts with a header identifying the encoding (see
+ * <code>DeltaTraceInputStream.isDeltaEncoded()</code>):
+ *
+ * <pre>
+ * int MAGIC, int encoding, int wordsPerRecord
+ * </pre>
+ */
+public class DeltaTraceOutputStream {
+
+	static final int MAGIC = 0x44545343; // "CSTD"
+	static final int HEADER_SIZE = 12;
+
+	public static final int ENCODING_DELTA_VARINT = 1;
+	public static final int MAXIMUM_WORDS_PER_RECORD = 1 << 10;
+
+	private final LittleEndianOutputStream output;
+	public final int wordsPerRecord;
+
+	private final long previous[];
+	private int column = 0;
+
+	public DeltaTraceOutputStream(File file, int wordsPerRecord) throws IOException {
+		this(new LittleEndianOutputStream(file), wordsPerRecord);
+	}
+
+	public DeltaTraceOutputStream(LittleEndianOutputStream output, int wordsPerRecord) throws IOException {
+		if ((wordsPerRecord < 1) || (wordsPerRecord > MAXIMUM_WORDS_PER_RECORD))
+			throw new IllegalArgumentException(String.format("Records must have 1 to %d words (not %d)",
+					MAXIMUM_WORDS_PER_RECORD, wordsPerRecord));
+
+		this.output = output;
+		this.wordsPerRecord = wordsPerRecord;
+		this.previous = new long[wordsPerRecord];
+
+		output.writeInt(MAGIC);
+		output.writeInt(ENCODING_DELTA_VARINT);
+		output.writeInt(wordsPerRecord);
+	}
+
+	public void writeLong(long word) throws IOException {
+		output.writeSignedVarLong(word - previous[column]);
+		previous[column] = word;
+		if (++column == wordsPerRecord)
+			column = 0;
+	}
+
+	public void writeRecord(long words[]) throws IOException {
+		if (column != 0)
+			throw new IllegalStateException(String.format("Cannot write a whole record at word %d of a record", column));
+
+		for (int i = 0; i < wordsPerRecord; i++) {
+			output.writeSignedVarLong(words[i] - previous[i]);
+			previous[i] = words[i];
+		}
+	}
+
+	public void flush() throws IOException {
+		output.flush();
+	}
+
+	public void close() throws IOException {
+		output.close();
+	}
+}
@@ -0,0 +1,203 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * Reads trace data written by <code>FramedTraceOutputStream</code>, verifying the checksum of each frame. In
+ * <code>STRICT</code> mode a corrupt or missing tail is an error; in <code>TRUNCATE</code> mode the stream ends after
+ * the last good frame, and <code>isTruncated()</code> reports whether anything was dropped. Wrap in a
+ * <code>LittleEndianInputStream</code> to read trace words.
+ */
+public class FramedTraceInputStream extends InputStream {
+
+	public enum RecoveryMode {
+		STRICT,
+		TRUNCATE
+	}
+
+	private final InputStream input;
+	private final RecoveryMode mode;
+	public final String description;
+
+	private final CRC32 crc = new CRC32();
+	private final byte header[] = new byte[FramedTraceOutputStream.HEADER_SIZE];
+	private final ByteBuffer headerView = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+	private final byte frame[];
+	private int frameIndex = 0;
+	private int frameLength = 0;
+
+	private int frameCount = 0;
+	private long goodFileLength = FramedTraceOutputStream.HEADER_SIZE;
+	private boolean ended = false;
+	private boolean truncated = false;
+
+	public FramedTraceInputStream(File file, RecoveryMode mode) throws IOException {
+		this(new FileInputStream(file), "file:" + file.getAbsolutePath(), mode);
+	}
+
+	/**
+	 * Closes <code>input</code> if it does not start with a valid framed trace header.
+	 */
+	public FramedTraceInputStream(InputStream input, String description, RecoveryMode mode) throws IOException {
+		this.input = input;
+		this.description = description;
+		this.mode = mode;
+
+		boolean opened = false;
+		try {
+			if ((readFully(header, 0, FramedTraceOutputStream.HEADER_SIZE) < FramedTraceOutputStream.HEADER_SIZE)
+					|| (headerView.getInt(0) != FramedTraceOutputStream.MAGIC))
+				throw new TraceDataSourceException(description + " is not a framed trace file");
+			if (headerView.getInt(4) != FramedTraceOutputStream.VERSION)
+				throw new TraceDataSourceException(String.format("%s has unsupported framed trace version %d",
+						description, headerView.getInt(4)));
+
+			int frameSize = headerView.getInt(8);
+			if ((frameSize < 1) || (frameSize > FramedTraceOutputStream.MAXIMUM_FRAME_SIZE))
+				throw new TraceDataSourceException(String.format("%s has invalid frame size %d", description,
+						frameSize));
+			frame = new byte[frameSize];
+			opened = true;
+		} finally {
+			if (!opened)
+				input.close();
+		}
+	}
+
+	/**
+	 * Truncates a framed trace file after its last good frame and terminates it with an end marker, so that it can
+	 * afterwards be read in <code>STRICT</code> mode. Returns the number of payload bytes kept.
+	 */
+	public static long recover(File file) throws IOException {
+		FramedTraceInputStream input = new FramedTraceInputStream(file, RecoveryMode.TRUNCATE);
+		byte discard[] = new byte[1 << 16];
+		long payloadLength = 0L;
+		try {
+			int count;
+			while ((count = input.read(discard, 0, discard.length)) > 0) {
+				payloadLength += count;
+			}
+		} finally {
+			input.close();
+		}
+		if (!input.isTruncated())
+			return payloadLength;
+
+		RandomAccessFile output = new RandomAccessFile(file, "rw");
+		try {
+			output.setLength(input.goodFileLength);
+			output.seek(input.goodFileLength);
+			ByteBuffer end = ByteBuffer.allocate(FramedTraceOutputStream.FRAME_HEADER_SIZE).order(
+					ByteOrder.LITTLE_ENDIAN);
+			end.putInt(FramedTraceOutputStream.END_MARKER).putInt(input.frameCount);
+			output.write(end.array());
+		} finally {
+			output.close();
+		}
+		return payloadLength;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if ((frameIndex == frameLength) && !nextFrame())
+			return -1;
+		return frame[frameIndex++] & 0xff;
+	}
+
+	@Override
+	public int read(byte dst[], int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if ((frameIndex == frameLength) && !nextFrame())
+			return -1;
+
+		int count = Math.min(len, frameLength - frameIndex);
+		System.arraycopy(frame, frameIndex, dst, off, count);
+		frameIndex += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return frameLength - frameIndex;
+	}
+
+	/**
+	 * True if a torn or corrupt tail was dropped (<code>TRUNCATE</code> mode only).
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Number of frames read and verified so far.
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+
+	private boolean nextFrame() throws IOException {
+		if (ended)
+			return false;
+
+		int headerLength = readFully(header, 0, FramedTraceOutputStream.FRAME_HEADER_SIZE);
+		if (headerLength < FramedTraceOutputStream.FRAME_HEADER_SIZE)
+			return endDamaged((headerLength == 0) ? "is missing its end marker" : "ends in a torn frame header");
+
+		int payloadLength = headerView.getInt(0);
+		if (payloadLength == FramedTraceOutputStream.END_MARKER) {
+			ended = true;
+			return false;
+		}
+		if ((payloadLength <= 0) || (payloadLength > frame.length))
+			return endDamaged(String.format("has a corrupt frame header after frame %d", frameCount));
+
+		int checksum = headerView.getInt(4);
+		if (readFully(frame, 0, payloadLength) < payloadLength)
+			return endDamaged(String.format("ends in a torn frame after frame %d", frameCount));
+
+		crc.reset();
+		crc.update(frame, 0, payloadLength);
+		if (((int) crc.getValue()) != checksum)
+			return endDamaged(String.format("has a checksum mismatch in frame %d", frameCount));
+
+		frameCount++;
+		goodFileLength += FramedTraceOutputStream.FRAME_HEADER_SIZE + payloadLength;
+		frameIndex = 0;
+		frameLength = payloadLength;
+		return true;
+	}
+
+	private boolean endDamaged(String problem) {
+		if (mode == RecoveryMode.STRICT)
+			throw new TraceDataSourceException(description + " " + problem);
+
+		ended = true;
+		truncated = true;
+		frameIndex = frameLength = 0;
+		return false;
+	}
+
+	private int readFully(byte dst[], int off, int len) throws IOException {
+		int total = 0;
+		while (total < len) {
+			int count = input.read(dst, off + total, len - total);
+			if (count < 0)
+				break;
+			total += count;
+		}
+		return total;
+	}
+}
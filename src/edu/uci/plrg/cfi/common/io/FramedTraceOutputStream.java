@@ -0,0 +1,113 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * Writes trace data in checksummed frames, so that a reader can detect a torn tail after a crash and recover every
+ * complete frame before it (see <code>FramedTraceInputStream</code>). Wrap in a <code>LittleEndianOutputStream</code>
+ * to write trace words. Layout (all values little-endian):
+ *
+ * <pre>
+ * header: int MAGIC, int VERSION, int frameSize
+ * frames: { int payloadLength, int crc32(payload), byte payload[payloadLength] } ...
+ * end:    int END_MARKER, int frameCount
+ * </pre>
+ *
+ * A frame is written whenever <code>frameSize</code> bytes are pending and on every <code>flush()</code>, so a monitor
+ * that flushes periodically loses at most the data written since its last flush. The default frame size is a multiple
+ * of both the 2-word and 3-word record sizes.
+ */
+public class FramedTraceOutputStream extends OutputStream {
+
+	static final int MAGIC = 0x46545343; // "CSTF"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 12;
+	static final int FRAME_HEADER_SIZE = 8;
+	static final int END_MARKER = -1;
+
+	public static final int DEFAULT_FRAME_SIZE = 3 << 15;
+	public static final int MAXIMUM_FRAME_SIZE = 1 << 26;
+
+	private final OutputStream output;
+	private final CRC32 crc = new CRC32();
+	private final byte frame[];
+	private final ByteBuffer frameView;
+	private int frameIndex = FRAME_HEADER_SIZE;
+	private int frameCount = 0;
+	private boolean closed = false;
+
+	public FramedTraceOutputStream(File file) throws IOException {
+		this(new FileOutputStream(file), DEFAULT_FRAME_SIZE);
+	}
+
+	public FramedTraceOutputStream(OutputStream output, int frameSize) throws IOException {
+		if ((frameSize < 1) || (frameSize > MAXIMUM_FRAME_SIZE))
+			throw new IllegalArgumentException(String.format("Frame size %d is outside [1, %d]", frameSize,
+					MAXIMUM_FRAME_SIZE));
+
+		this.output = output;
+		this.frame = new byte[FRAME_HEADER_SIZE + frameSize];
+		this.frameView = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+
+		frameView.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, frameSize);
+		output.write(frame, 0, HEADER_SIZE);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (frameIndex == frame.length)
+			writeFrame();
+		frame[frameIndex++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte data[], int off, int len) throws IOException {
+		while (len > 0) {
+			if (frameIndex == frame.length)
+				writeFrame();
+
+			int count = Math.min(len, frame.length - frameIndex);
+			System.arraycopy(data, off, frame, frameIndex, count);
+			frameIndex += count;
+			off += count;
+			len -= count;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (frameIndex > FRAME_HEADER_SIZE)
+			writeFrame();
+		output.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		if (frameIndex > FRAME_HEADER_SIZE)
+			writeFrame();
+		frameView.putInt(0, END_MARKER).putInt(4, frameCount);
+		output.write(frame, 0, FRAME_HEADER_SIZE);
+		output.close();
+	}
+
+	private void writeFrame() throws IOException {
+		int payloadLength = frameIndex - FRAME_HEADER_SIZE;
+		crc.reset();
+		crc.update(frame, FRAME_HEADER_SIZE, payloadLength);
+		frameView.putInt(0, payloadLength).putInt(4, (int) crc.getValue());
+
+		output.write(frame, 0, frameIndex);
+		frameIndex = FRAME_HEADER_SIZE;
+		frameCount++;
+	}
+}
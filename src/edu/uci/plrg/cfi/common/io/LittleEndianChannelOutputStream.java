@@ -0,0 +1,126 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Channel counterpart of <code>LittleEndianOutputStream</code>: values are put directly into a little-endian direct
+ * buffer, which is drained with a single channel write when full. Records that are already assembled in buffers of
+ * their own can be written with <code>writeBuffers()</code>, which gathers them with any pending data in one call.
+ */
+public class LittleEndianChannelOutputStream {
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	private final GatheringByteChannel channel;
+	public final String description;
+
+	private final ByteBuffer buffer;
+	private long drained = 0L;
+
+	public LittleEndianChannelOutputStream(GatheringByteChannel channel, String description) {
+		this(channel, description, DEFAULT_BUFFER_SIZE);
+	}
+
+	public LittleEndianChannelOutputStream(GatheringByteChannel channel, String description, int bufferSize) {
+		if (bufferSize < 8)
+			throw new IllegalArgumentException(String.format("Buffer size %d is too small", bufferSize));
+
+		this.channel = channel;
+		this.description = description;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public LittleEndianChannelOutputStream(File file) throws FileNotFoundException {
+		this(new FileOutputStream(file).getChannel(), "file:" + file.getAbsolutePath());
+	}
+
+	public void writeInt(int data) throws IOException {
+		if (buffer.remaining() < 4)
+			drain();
+		buffer.putInt(data);
+	}
+
+	public void writeLong(long data) throws IOException {
+		if (buffer.remaining() < 8)
+			drain();
+		buffer.putLong(data);
+	}
+
+	public void writeByte(byte data) throws IOException {
+		if (!buffer.hasRemaining())
+			drain();
+		buffer.put(data);
+	}
+
+	public void writeBytes(byte data[]) throws IOException {
+		int dataIndex = 0;
+		while (dataIndex < data.length) {
+			if (!buffer.hasRemaining())
+				drain();
+			int count = Math.min(buffer.remaining(), data.length - dataIndex);
+			buffer.put(data, dataIndex, count);
+			dataIndex += count;
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of each of <code>records</code>, preceded by any buffered data, in a single gathering
+	 * write (repeated only if the channel accepts a partial write).
+	 */
+	public void writeBuffers(ByteBuffer... records) throws IOException {
+		ByteBuffer all[] = new ByteBuffer[records.length + 1];
+		buffer.flip();
+		all[0] = buffer;
+		System.arraycopy(records, 0, all, 1, records.length);
+
+		long total = 0L;
+		for (ByteBuffer each : all) {
+			total += each.remaining();
+		}
+		drained += total;
+		while (total > 0L) {
+			total -= channel.write(all);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Number of bytes written to this stream so far, including buffered bytes.
+	 */
+	public long position() {
+		return drained + buffer.position();
+	}
+
+	public int alignBuffer(int unit) throws IOException {
+		int padding = 0;
+		while ((position() % unit) > 0L) {
+			writeByte((byte) 0);
+			padding++;
+		}
+		return padding;
+	}
+
+	public void flush() throws IOException {
+		if (buffer.position() > 0)
+			drain();
+	}
+
+	public void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+	private void drain() throws IOException {
+		drained += buffer.position();
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -6,82 +6,369 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 
 import edu.uci.plrg.cfi.common.log.Log;
 
 public class LittleEndianInputStream {
-	private static final int BUFFER_SIZE = 1 << 14;
+
+	public enum ReadMode {
+		STREAM,
+		MAPPED
+	}
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 14;
+	private static final int MINIMUM_BUFFER_SIZE = 16;
+	private static final int MAXIMUM_VARINT_SIZE = 10;
+	private static final long MAPPED_WINDOW_SIZE = 1L << 30;
 
 	private final InputStream input;
 	public final String description;
+	/**
+	 * Format of the words read by <code>readWord()</code> and <code>readWords()</code>.
+	 */
+	public final WordCodec codec;
 
-	private int end = -1;
-	private int byteIndex = -1;
-	byte buffer[] = new byte[BUFFER_SIZE];
+	// mapped mode only: files larger than one window are walked by remapping at the current position
+	private final FileChannel channel;
+	private final long channelSize;
+	private MappedByteBuffer window;
+	private long windowStart = 0L;
+
+	// stream mode only: unread bytes are buffer[byteIndex, end)
+	private int end = 0;
+	private int byteIndex = 0;
+	final byte buffer[];
+	private final ByteBuffer bufferView;
 
 	public LittleEndianInputStream(InputStream input, String description) {
+		this(input, description, DEFAULT_BUFFER_SIZE);
+	}
+
+	public LittleEndianInputStream(InputStream input, String description, int bufferSize) {
+		this(input, description, bufferSize, WordCodec.LITTLE_ENDIAN_64);
+	}
+
+	public LittleEndianInputStream(InputStream input, String description, int bufferSize, WordCodec codec) {
+		if (bufferSize < MINIMUM_BUFFER_SIZE)
+			throw new IllegalArgumentException(String.format("Buffer size %d is smaller than the minimum %d",
+					bufferSize, MINIMUM_BUFFER_SIZE));
+
 		this.input = input;
 		this.description = description;
+		this.codec = codec;
+		this.channel = null;
+		this.channelSize = 0L;
+		this.buffer = new byte[bufferSize];
+		this.bufferView = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
 	}
 
 	public LittleEndianInputStream(File file) throws FileNotFoundException {
-		this.input = new FileInputStream(file);
+		this(file, DEFAULT_BUFFER_SIZE);
+	}
+
+	public LittleEndianInputStream(File file, int bufferSize) throws FileNotFoundException {
+		this(new FileInputStream(file), "file:" + file.getAbsolutePath(), bufferSize);
+	}
+
+	public LittleEndianInputStream(File file, WordCodec codec) throws FileNotFoundException {
+		this(new FileInputStream(file), "file:" + file.getAbsolutePath(), DEFAULT_BUFFER_SIZE, codec);
+	}
+
+	public LittleEndianInputStream(File file, ReadMode mode) throws IOException {
+		this(file, mode, WordCodec.LITTLE_ENDIAN_64);
+	}
+
+	public LittleEndianInputStream(File file, ReadMode mode, WordCodec codec) throws IOException {
 		this.description = "file:" + file.getAbsolutePath();
+		this.codec = codec;
+
+		if (mode == ReadMode.MAPPED) {
+			this.input = null;
+			this.buffer = null;
+			this.bufferView = null;
+			this.channel = new FileInputStream(file).getChannel();
+
+			boolean opened = false;
+			try {
+				this.channelSize = channel.size();
+				window = channel.map(MapMode.READ_ONLY, 0L, Math.min(MAPPED_WINDOW_SIZE, channelSize));
+				window.order(ByteOrder.LITTLE_ENDIAN);
+				opened = true;
+			} finally {
+				if (!opened)
+					channel.close();
+			}
+		} else {
+			this.input = new FileInputStream(file);
+			this.channel = null;
+			this.channelSize = 0L;
+			this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+			this.bufferView = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+		}
 	}
 
 	public int available() throws IOException {
+		if (channel != null)
+			return (int) Math.min(Integer.MAX_VALUE, mappedRemaining());
+
 		return ((end - byteIndex) + input.available());
 	}
 
 	public boolean ready() throws IOException {
-		return (byteIndex < end) || (input.available() > 0);
+		return ready(1);
 	}
 
+	/**
+	 * True if the next <code>bytesRequested</code> bytes can be read, false if the input ends before them. In stream
+	 * mode this reads ahead as necessary, so it blocks on a pipe until the bytes arrive or the writer closes it, and it
+	 * throws <code>IllegalArgumentException</code> if <code>bytesRequested</code> exceeds the buffer size. (It no
+	 * longer answers from <code>available()</code>, which could report true with fewer bytes buffered, or false
+	 * before the end of a slow stream.)
+	 */
 	public boolean ready(int bytesRequested) throws IOException {
-		return ((byteIndex + bytesRequested) <= end) || (input.available() > 0);
+		if (channel != null)
+			return mappedRemaining() >= bytesRequested;
+
+		return fill(bytesRequested);
 	}
 
 	public int readInt() throws IOException {
-		if ((end < 0) || (byteIndex == BUFFER_SIZE)) {
-			end = Math.min(input.available(), BUFFER_SIZE);
-			input.read(buffer, 0, end);
-			byteIndex = 0;
+		if (channel != null) {
+			if (window.remaining() < 4)
+				mapWindow(4);
+			return window.getInt();
 		}
 
-		if (byteIndex >= end)
+		if (((end - byteIndex) < 4) && !fill(4))
 			throw new EOFException("End of input stream reached.");
 
-		int value = ((((int) buffer[byteIndex + 3]) & 0xff) << 0x18) | ((((int) buffer[byteIndex + 2]) & 0xff) << 0x10)
-				| ((((int) buffer[byteIndex + 1]) & 0xff) << 0x8) | (((int) buffer[byteIndex]) & 0xff);
+		int value = bufferView.getInt(byteIndex);
 		byteIndex += 4;
 		return value;
 	}
 
 	public long readLong() throws IOException {
-		if ((end < 0) || (byteIndex == BUFFER_SIZE)) {
-			end = Math.min(input.available(), BUFFER_SIZE);
-			input.read(buffer, 0, end);
-			byteIndex = 0;
+		if (channel != null) {
+			if (window.remaining() < 8)
+				mapWindow(8);
+			return window.getLong();
 		}
 
-		if (byteIndex >= end)
+		if (((end - byteIndex) < 8) && !fill(8))
 			throw new EOFException("End of input stream reached.");
 
-		long value = ((((long) buffer[byteIndex + 7]) & 0xffL) << 0x38)
-				| ((((long) buffer[byteIndex + 6]) & 0xffL) << 0x30)
-				| ((((long) buffer[byteIndex + 5]) & 0xffL) << 0x28)
-				| ((((long) buffer[byteIndex + 4]) & 0xffL) << 0x20)
-				| ((((long) buffer[byteIndex + 3]) & 0xffL) << 0x18)
-				| ((((long) buffer[byteIndex + 2]) & 0xffL) << 0x10)
-				| ((((long) buffer[byteIndex + 1]) & 0xffL) << 0x8) | (((long) buffer[byteIndex]) & 0xffL);
+		long value = bufferView.getLong(byteIndex);
 		byteIndex += 8;
 		return value;
 	}
 
+	/**
+	 * Reads one word in the format of <code>codec</code>.
+	 */
+	public long readWord() throws IOException {
+		int wordSize = codec.wordSize;
+		if (channel != null) {
+			if (window.remaining() < wordSize)
+				mapWindow(wordSize);
+			int index = window.position();
+			window.position(index + wordSize);
+			return codec.getWord(window, index);
+		}
+
+		if (((end - byteIndex) < wordSize) && !fill(wordSize))
+			throw new EOFException("End of input stream reached.");
+
+		long word = codec.getWord(bufferView, byteIndex);
+		byteIndex += wordSize;
+		return word;
+	}
+
+	public void readWords(long dst[], int off, int len) throws IOException {
+		int wordSize = codec.wordSize;
+		while (len > 0) {
+			int count;
+			if (channel != null) {
+				int index = window.position();
+				count = Math.min(len, window.remaining() / wordSize);
+				for (int i = 0; i < count; i++, index += wordSize) {
+					dst[off + i] = codec.getWord(window, index);
+				}
+				window.position(index);
+			} else {
+				int index = byteIndex;
+				count = Math.min(len, (end - byteIndex) / wordSize);
+				for (int i = 0; i < count; i++, index += wordSize) {
+					dst[off + i] = codec.getWord(bufferView, index);
+				}
+				byteIndex = index;
+			}
+
+			if (count == 0) { // refill or remap on the single-word path
+				dst[off] = readWord();
+				count = 1;
+			}
+			off += count;
+			len -= count;
+		}
+	}
+
+	public byte readByte() throws IOException {
+		if (channel != null) {
+			if (!window.hasRemaining())
+				mapWindow(1);
+			return window.get();
+		}
+
+		if ((byteIndex == end) && !fill(1))
+			throw new EOFException("End of input stream reached.");
+
+		return buffer[byteIndex++];
+	}
+
+	/**
+	 * Reads an unsigned LEB128 varint as written by <code>LittleEndianOutputStream.writeVarLong()</code>.
+	 */
+	public long readVarLong() throws IOException {
+		long value = 0L;
+		int shift = 0;
+		byte b;
+		if ((channel == null) && ((end - byteIndex) >= MAXIMUM_VARINT_SIZE)) {
+			do {
+				b = buffer[byteIndex++];
+				value |= (b & 0x7fL) << shift;
+				shift += 7;
+			} while ((b < 0) && (shift < 70));
+		} else {
+			do {
+				b = readByte();
+				value |= (b & 0x7fL) << shift;
+				shift += 7;
+			} while ((b < 0) && (shift < 70));
+		}
+
+		if (b < 0)
+			throw new TraceDataSourceException("Malformed varint in " + description);
+		return value;
+	}
+
+	public long readSignedVarLong() throws IOException {
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1L);
+	}
+
+	public void readInts(int dst[], int off, int len) throws IOException {
+		while (len > 0) {
+			int count;
+			if (channel != null) {
+				count = Math.min(len, window.remaining() >> 2);
+				if (count > 0) {
+					window.asIntBuffer().get(dst, off, count);
+					window.position(window.position() + (count << 2));
+				}
+			} else {
+				count = Math.min(len, (end - byteIndex) >> 2);
+				if (count > 0) {
+					bufferView.position(byteIndex);
+					bufferView.asIntBuffer().get(dst, off, count);
+					byteIndex += (count << 2);
+				}
+			}
+
+			if (count == 0) { // refill or remap on the single-value path
+				dst[off] = readInt();
+				count = 1;
+			}
+			off += count;
+			len -= count;
+		}
+	}
+
+	public void readLongs(long dst[], int off, int len) throws IOException {
+		while (len > 0) {
+			int count;
+			if (channel != null) {
+				count = Math.min(len, window.remaining() >> 3);
+				if (count > 0) {
+					window.asLongBuffer().get(dst, off, count);
+					window.position(window.position() + (count << 3));
+				}
+			} else {
+				count = Math.min(len, (end - byteIndex) >> 3);
+				if (count > 0) {
+					bufferView.position(byteIndex);
+					bufferView.asLongBuffer().get(dst, off, count);
+					byteIndex += (count << 3);
+				}
+			}
+
+			if (count == 0) { // refill or remap on the single-value path
+				dst[off] = readLong();
+				count = 1;
+			}
+			off += count;
+			len -= count;
+		}
+	}
+
 	public void close() throws IOException {
-		input.close();
+		if (channel != null) {
+			channel.close();
+			window = null;
+		} else {
+			input.close();
+		}
+	}
+
+	/**
+	 * Ensure at least <code>bytesRequested</code> unread bytes are buffered, carrying any partial value to the front of
+	 * the buffer and reading until enough bytes arrive. Returns false only if the input ends first.
+	 */
+	private boolean fill(int bytesRequested) throws IOException {
+		int unread = end - byteIndex;
+		if (unread >= bytesRequested)
+			return true;
+		if (bytesRequested > buffer.length)
+			throw new IllegalArgumentException(String.format("Cannot buffer %d bytes in a buffer of size %d",
+					bytesRequested, buffer.length));
+
+		if (unread > 0)
+			System.arraycopy(buffer, byteIndex, buffer, 0, unread);
+		byteIndex = 0;
+		end = unread;
+
+		while (end < bytesRequested) {
+			int count = input.read(buffer, end, buffer.length - end);
+			if (count < 0)
+				return false;
+			end += count;
+		}
+		return true;
+	}
+
+	private long mappedRemaining() {
+		return channelSize - (windowStart + window.position());
+	}
+
+	/**
+	 * Map the next window starting at the current read position, so a value straddling the end of the previous
+	 * window is read whole from the new one.
+	 */
+	private void mapWindow(int bytesRequested) throws IOException {
+		long position = windowStart + window.position();
+		if ((channelSize - position) < bytesRequested)
+			throw new EOFException("End of input stream reached.");
+
+		window = channel.map(MapMode.READ_ONLY, position, Math.min(MAPPED_WINDOW_SIZE, channelSize - position));
+		window.order(ByteOrder.LITTLE_ENDIAN);
+		windowStart = position;
 	}
 
 	// unit test
@@ -109,6 +396,26 @@ public class LittleEndianInputStream {
 				long forward = dataInput.readLong();
 				Log.log("DataInputStream read value 0x%x", forward);
 			}
+
+			File mappedFile = File.createTempFile("little-endian", ".dat");
+			mappedFile.deleteOnExit();
+			FileOutputStream mappedOutput = new FileOutputStream(mappedFile);
+			mappedOutput.write(buffer);
+			mappedOutput.close();
+			LittleEndianInputStream mapped = new LittleEndianInputStream(mappedFile, ReadMode.MAPPED);
+			while (mapped.ready(0x8)) {
+				long reversed = mapped.readLong();
+				Log.log("Mapped LittleEndianInputStream read value 0x%x", reversed);
+			}
+			mapped.close();
+
+			input.reset();
+			test = new LittleEndianInputStream(input, "byte buffer");
+			long record[] = new long[3];
+			while (test.ready(0x18)) {
+				test.readLongs(record, 0, record.length);
+				Log.log("LittleEndianInputStream read record { 0x%x, 0x%x, 0x%x }", record[0], record[1], record[2]);
+			}
 		} catch (Throwable t) {
 			t.printStackTrace();
 		}
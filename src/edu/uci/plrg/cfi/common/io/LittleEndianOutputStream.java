@@ -6,99 +6,302 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 public class LittleEndianOutputStream {
-	private static final int BUFFER_SIZE = 1 << 14;
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 14;
+	private static final int MINIMUM_BUFFER_SIZE = 16;
+	private static final int MAXIMUM_VARINT_SIZE = 10;
+	// shorter runs are cheaper to put one at a time than through a new buffer view
+	private static final int BULK_VIEW_THRESHOLD = 16;
+	// installed by an asynchronous close(), so the next write reaches the closed writer and fails
+	private static final AsyncBufferWriter.Buffer CLOSED_BUFFER = new AsyncBufferWriter.Buffer(0);
 
 	private final OutputStream output;
 	public final String description;
+	/**
+	 * Format of the words written by <code>writeWord()</code> and <code>writeWords()</code>.
+	 */
+	public final WordCodec codec;
+
+	// asynchronous mode only: full buffers are exchanged for empty ones from the background writer
+	private final AsyncBufferWriter asyncWriter;
+	private AsyncBufferWriter.Buffer asyncBuffer;
 
 	private int byteIndex = 0;
-	byte buffer[] = new byte[BUFFER_SIZE];
+	private long drained = 0L;
+	byte buffer[];
+	private ByteBuffer bufferView;
 
 	public LittleEndianOutputStream(OutputStream output, String description) {
+		this(output, description, DEFAULT_BUFFER_SIZE);
+	}
+
+	public LittleEndianOutputStream(OutputStream output, String description, int bufferSize) {
+		this(output, description, bufferSize, WordCodec.LITTLE_ENDIAN_64);
+	}
+
+	public LittleEndianOutputStream(OutputStream output, String description, int bufferSize, WordCodec codec) {
+		if (bufferSize < MINIMUM_BUFFER_SIZE)
+			throw new IllegalArgumentException(String.format("Buffer size %d is smaller than the minimum %d",
+					bufferSize, MINIMUM_BUFFER_SIZE));
+
 		this.output = output;
 		this.description = description;
+		this.codec = codec;
+		this.asyncWriter = null;
+		this.buffer = new byte[bufferSize];
+		this.bufferView = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Write asynchronously through <code>asyncWriter</code>, which owns the buffers and the underlying output.
+	 */
+	public LittleEndianOutputStream(AsyncBufferWriter asyncWriter) throws IOException {
+		this(asyncWriter, WordCodec.LITTLE_ENDIAN_64);
+	}
+
+	public LittleEndianOutputStream(AsyncBufferWriter asyncWriter, WordCodec codec) throws IOException {
+		this.output = null;
+		this.description = asyncWriter.description;
+		this.codec = codec;
+		this.asyncWriter = asyncWriter;
+		this.asyncBuffer = asyncWriter.open();
+		this.buffer = asyncBuffer.data;
+		this.bufferView = asyncBuffer.view;
 	}
 
 	public LittleEndianOutputStream(File file) throws FileNotFoundException {
-		this.output = new FileOutputStream(file);
-		this.description = "file:" + file.getAbsolutePath();
+		this(new FileOutputStream(file), "file:" + file.getAbsolutePath());
+	}
+
+	public LittleEndianOutputStream(File file, int bufferSize) throws FileNotFoundException {
+		this(new FileOutputStream(file), "file:" + file.getAbsolutePath(), bufferSize);
+	}
+
+	public LittleEndianOutputStream(File file, WordCodec codec) throws FileNotFoundException {
+		this(new FileOutputStream(file), "file:" + file.getAbsolutePath(), DEFAULT_BUFFER_SIZE, codec);
 	}
 
 	public void writeInt(int data) throws IOException {
-		if (byteIndex == BUFFER_SIZE) {
-			output.write(buffer);
-			byteIndex = 0;
-		}
+		if ((buffer.length - byteIndex) < 4)
+			drain();
 
-		buffer[byteIndex++] = (byte) (data);
-		buffer[byteIndex++] = (byte) (data >> 0x8);
-		buffer[byteIndex++] = (byte) (data >> 0x10);
-		buffer[byteIndex++] = (byte) (data >> 0x18);
+		bufferView.putInt(byteIndex, data);
+		byteIndex += 4;
 	}
 
 	public void writeLong(long data) throws IOException {
-		if (byteIndex == BUFFER_SIZE) {
-			output.write(buffer);
-			byteIndex = 0;
+		if ((buffer.length - byteIndex) < 8)
+			drain();
+
+		bufferView.putLong(byteIndex, data);
+		byteIndex += 8;
+	}
+
+	/**
+	 * Writes <code>word</code> in the format of <code>codec</code>.
+	 */
+	public void writeWord(long word) throws IOException {
+		if ((buffer.length - byteIndex) < codec.wordSize)
+			drain();
+
+		codec.putWord(bufferView, byteIndex, word);
+		byteIndex += codec.wordSize;
+	}
+
+	public void writeWords(long src[], int off, int len) throws IOException {
+		int wordSize = codec.wordSize;
+		while (len > 0) {
+			if ((buffer.length - byteIndex) < wordSize)
+				drain();
+
+			int count = Math.min(len, (buffer.length - byteIndex) / wordSize);
+			int index = byteIndex;
+			for (int i = 0; i < count; i++, index += wordSize) {
+				codec.putWord(bufferView, index, src[off + i]);
+			}
+			byteIndex = index;
+			off += count;
+			len -= count;
 		}
+	}
+
+	/**
+	 * Writes <code>data</code> as an unsigned LEB128 varint of 1 to 10 bytes, 7 bits per byte, low bits first.
+	 */
+	public void writeVarLong(long data) throws IOException {
+		if ((buffer.length - byteIndex) < MAXIMUM_VARINT_SIZE)
+			drain();
 
-		buffer[byteIndex++] = (byte) (data);
-		buffer[byteIndex++] = (byte) (data >> 0x8);
-		buffer[byteIndex++] = (byte) (data >> 0x10);
-		buffer[byteIndex++] = (byte) (data >> 0x18);
-		
-		if (byteIndex == BUFFER_SIZE) {
-			output.write(buffer);
-			byteIndex = 0;
+		while ((data & ~0x7fL) != 0L) {
+			buffer[byteIndex++] = (byte) ((data & 0x7fL) | 0x80L);
+			data >>>= 7;
 		}
+		buffer[byteIndex++] = (byte) data;
+	}
 
-		buffer[byteIndex++] = (byte) (data >> 0x20);
-		buffer[byteIndex++] = (byte) (data >> 0x28);
-		buffer[byteIndex++] = (byte) (data >> 0x30);
-		buffer[byteIndex++] = (byte) (data >> 0x38);
+	/**
+	 * Writes <code>data</code> as a zig-zag varint, so values of small magnitude take few bytes whatever their sign.
+	 */
+	public void writeSignedVarLong(long data) throws IOException {
+		writeVarLong((data << 1) ^ (data >> 63));
 	}
 
-	public void writeBytes(byte data[]) throws IOException {
-		int dataIndex = 0;
-		while ((byteIndex + (data.length - dataIndex)) >= BUFFER_SIZE) {
-			while (byteIndex < BUFFER_SIZE) {
-				buffer[byteIndex++] = data[dataIndex++];
+	public void writeInts(int data[]) throws IOException {
+		writeInts(data, 0, data.length);
+	}
+
+	public void writeInts(int data[], int off, int len) throws IOException {
+		while (len > 0) {
+			int count = Math.min(len, (buffer.length - byteIndex) >> 2);
+			if (count == 0) {
+				drain();
+				continue;
 			}
-			output.write(buffer);
-			byteIndex = 0;
+
+			if (count < BULK_VIEW_THRESHOLD) {
+				int index = byteIndex;
+				for (int i = off; i < (off + count); i++, index += 4) {
+					bufferView.putInt(index, data[i]);
+				}
+			} else {
+				bufferView.position(byteIndex);
+				bufferView.asIntBuffer().put(data, off, count);
+			}
+			byteIndex += (count << 2);
+			off += count;
+			len -= count;
+		}
+	}
+
+	public void writeLongs(long data[]) throws IOException {
+		writeLongs(data, 0, data.length);
+	}
+
+	public void writeLongs(long data[], int off, int len) throws IOException {
+		while (len > 0) {
+			int count = Math.min(len, (buffer.length - byteIndex) >> 3);
+			if (count == 0) {
+				drain();
+				continue;
+			}
+
+			if (count < BULK_VIEW_THRESHOLD) {
+				int index = byteIndex;
+				for (int i = off; i < (off + count); i++, index += 8) {
+					bufferView.putLong(index, data[i]);
+				}
+			} else {
+				bufferView.position(byteIndex);
+				bufferView.asLongBuffer().put(data, off, count);
+			}
+			byteIndex += (count << 3);
+			off += count;
+			len -= count;
+		}
+	}
+
+	public void writeBytes(byte data[]) throws IOException {
+		writeBytes(data, 0, data.length);
+	}
+
+	public void writeBytes(byte data[], int off, int len) throws IOException {
+		int dataIndex = off;
+		int dataEnd = off + len;
+		while (dataIndex < dataEnd) {
+			if (byteIndex == buffer.length)
+				drain();
+
+			int count = Math.min(buffer.length - byteIndex, dataEnd - dataIndex);
+			System.arraycopy(data, dataIndex, buffer, byteIndex, count);
+			byteIndex += count;
+			dataIndex += count;
 		}
-		
-		while (dataIndex < data.length)
-			buffer[byteIndex++] = data[dataIndex++];
 	}
 
 	public void writeByte(byte data) throws IOException {
+		if (byteIndex == buffer.length)
+			drain();
+
 		buffer[byteIndex++] = data;
 	}
-	
+
+	/**
+	 * Number of bytes written to this stream so far, including buffered bytes.
+	 */
+	public long position() {
+		return drained + byteIndex;
+	}
+
+	/**
+	 * Pads with zeros up to the next multiple of <code>unit</code> bytes from the start of the stream. The padding is
+	 * written into the buffer without draining it, so it must fit in the buffer's free space; call <code>flush()</code>
+	 * first if it may not.
+	 */
 	public int alignBuffer(int unit) {
-		int padding = 0;
-		while ((byteIndex % unit) > 0) {
-			buffer[byteIndex++] = 0;
-			padding++;
-		}
+		int padding = (int) ((unit - (position() % unit)) % unit);
+		if (padding > (buffer.length - byteIndex))
+			throw new IllegalStateException(String.format(
+					"Padding %s to a multiple of %d bytes requires %d bytes, but only %d are free in the buffer",
+					description, unit, padding, buffer.length - byteIndex));
+
+		Arrays.fill(buffer, byteIndex, byteIndex + padding, (byte) 0);
+		byteIndex += padding;
 		return padding;
 	}
 
 	public void flush() throws IOException {
-		if (byteIndex > 0) {
-			output.write(buffer, 0, byteIndex);
-			output.flush();
-			byteIndex = 0;
+		if (asyncWriter != null) {
+			useAsyncBuffer(asyncWriter.sync(releaseAsyncBuffer()));
+			return;
 		}
+
+		if (byteIndex > 0)
+			drain();
+		output.flush();
 	}
 
 	public void close() throws IOException {
+		if (asyncWriter != null) {
+			try {
+				asyncWriter.close(releaseAsyncBuffer());
+			} finally {
+				useAsyncBuffer(CLOSED_BUFFER);
+			}
+			return;
+		}
+
+		flush();
 		output.close();
 	}
 
+	private AsyncBufferWriter.Buffer releaseAsyncBuffer() {
+		asyncBuffer.length = byteIndex;
+		drained += byteIndex;
+		byteIndex = 0;
+		return asyncBuffer;
+	}
+
+	private void useAsyncBuffer(AsyncBufferWriter.Buffer next) {
+		asyncBuffer = next;
+		buffer = next.data;
+		bufferView = next.view;
+	}
+
+	private void drain() throws IOException {
+		if (asyncWriter != null) {
+			useAsyncBuffer(asyncWriter.exchange(releaseAsyncBuffer()));
+			return;
+		}
+
+		output.write(buffer, 0, byteIndex);
+		drained += byteIndex;
+		byteIndex = 0;
+	}
+
 	// unit test
 	public static void main(String[] args) {
 		try {
@@ -117,7 +320,7 @@ public class LittleEndianOutputStream {
 			}
 			output.flush();
 
-			System.out.println("Output stream with buffer size " + BUFFER_SIZE + " wrote: ");
+			System.out.println("Output stream with buffer size " + DEFAULT_BUFFER_SIZE + " wrote: ");
 
 			byte written[] = buffer.toByteArray();
 			int byteCount = count * 2 * 8;
@@ -1,13 +1,107 @@
 package edu.uci.plrg.cfi.common.io;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Little-endian positional access to a file through a page cache. Reads are served from cached pages. In
+ * <code>WRITE_THROUGH</code> mode (the default) every write goes straight to the file with one positional channel
+ * write, and updates the page if it is cached, so the file is always current for other users of the wrapped
+ * <code>RandomAccessFile</code>. In <code>WRITE_BACK</code> mode writes only dirty the cached pages, which are written
+ * back when evicted, on <code>flush()</code> and on <code>close()</code>; the file must then be closed through this
+ * wrapper. The sequential <code>seek()</code>/<code>write*()</code>/<code>read*()</code> methods operate at, and
+ * advance, the file pointer of the wrapped <code>RandomAccessFile</code>. Writes made directly to the wrapped file are
+ * not seen by reads of pages that are already cached. The bulk <code>readLongs()</code>/<code>writeLongs()</code> (and
+ * int) methods copy each page-contained run at once; for patching many scattered values, prefer
+ * <code>WRITE_BACK</code>, since each single-value write-through costs a channel write.
+ */
 public class LittleEndianRandomAccessFile {
+
+	public enum WriteMode {
+		WRITE_THROUGH,
+		WRITE_BACK
+	}
+
+	private static final int PAGE_SHIFT = 16;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final long PAGE_MASK = PAGE_SIZE - 1;
+	private static final int DEFAULT_CACHE_PAGES = 256;
+
+	/**
+	 * A cached page. Evicted pages are reused for the next miss, along with their buffers.
+	 */
+	private static class Page implements Comparable<Page> {
+		long index;
+		final ByteBuffer data = ByteBuffer.allocateDirect(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		int length; // valid bytes, from the file or written since
+		boolean dirty;
+
+		@Override
+		public int compareTo(Page other) {
+			return (index < other.index) ? -1 : ((index == other.index) ? 0 : 1);
+		}
+	}
+
 	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int cachePages;
+	private final WriteMode writeMode;
+	private final WordCodec codec;
+	private final ByteBuffer scratch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN); // write-through words
+	private ByteBuffer bulkScratch = null; // write-through runs, allocated by the first bulk write
+
+	// access-ordered, so iteration starts at the least recently used page
+	private final Map<Long, Page> pages = new LinkedHashMap<Long, Page>(16, 0.75f, true);
+	private Page lastPage = null;
+
+	private long size = 0L; // at least the length of the file, refreshed when a read reaches beyond it
 
 	public LittleEndianRandomAccessFile(RandomAccessFile file) {
+		this(file, DEFAULT_CACHE_PAGES, WriteMode.WRITE_THROUGH);
+	}
+
+	public LittleEndianRandomAccessFile(RandomAccessFile file, int cachePages) {
+		this(file, cachePages, WriteMode.WRITE_THROUGH);
+	}
+
+	public LittleEndianRandomAccessFile(RandomAccessFile file, int cachePages, WriteMode writeMode) {
+		this(file, cachePages, writeMode, WordCodec.LITTLE_ENDIAN_64);
+	}
+
+	/**
+	 * @param codec
+	 *            format of the words accessed by <code>readWord()</code> and <code>writeWord()</code>
+	 */
+	public LittleEndianRandomAccessFile(RandomAccessFile file, int cachePages, WriteMode writeMode, WordCodec codec) {
+		if (cachePages < 1)
+			throw new IllegalArgumentException("The page cache must hold at least one page");
+
 		this.file = file;
+		this.channel = file.getChannel();
+		this.cachePages = cachePages;
+		this.writeMode = writeMode;
+		this.codec = codec;
+	}
+
+	/**
+	 * Logical length of the file, including cached writes that have not been written back yet.
+	 */
+	public long length() throws IOException {
+		return Math.max(size, channel.size());
+	}
+
+	public long getFilePointer() throws IOException {
+		return file.getFilePointer();
 	}
 
 	public void seek(long position) throws IOException {
@@ -15,19 +109,378 @@ public class LittleEndianRandomAccessFile {
 	}
 
 	public void writeInt(int data) throws IOException {
-		data = ((data & 0xff) << 0x18) | ((data & 0xff00) << 0x8) | ((data & 0xff0000) >> 0x8) | ((data & 0xff000000) >> 0x18);
-		file.writeInt(data);
+		long position = file.getFilePointer();
+		writeInt(position, data);
+		file.seek(position + 4);
 	}
 
 	public void writeLong(long data) throws IOException {
-		data = ((data & 0xffL) << 0x38L) | ((data & 0xff00L) << 0x28L) | ((data & 0xff0000L) << 0x18L)
-				| ((data & 0xff000000L) << 0x8L) | ((data & 0xff00000000L) >> 0x8L)
-				| ((data & 0xff0000000000L) >> 0x18L) | ((data & 0xff000000000000L) >> 0x28L)
-				| ((data & 0xff00000000000000L) >> 0x38L);
-		file.writeLong(data);
+		long position = file.getFilePointer();
+		writeLong(position, data);
+		file.seek(position + 8);
+	}
+
+	public int readInt() throws IOException {
+		long position = file.getFilePointer();
+		int value = readInt(position);
+		file.seek(position + 4);
+		return value;
+	}
+
+	public long readLong() throws IOException {
+		long position = file.getFilePointer();
+		long value = readLong(position);
+		file.seek(position + 8);
+		return value;
+	}
+
+	public int readInt(long position) throws IOException {
+		checkAvailable(position, 4);
+
+		int offset = (int) (position & PAGE_MASK);
+		if (offset <= (PAGE_SIZE - 4))
+			return getPage(position >>> PAGE_SHIFT).data.getInt(offset);
+
+		return (int) readStraddled(position, 4);
+	}
+
+	public long readLong(long position) throws IOException {
+		checkAvailable(position, 8);
+
+		int offset = (int) (position & PAGE_MASK);
+		if (offset <= (PAGE_SIZE - 8))
+			return getPage(position >>> PAGE_SHIFT).data.getLong(offset);
+
+		return readStraddled(position, 8);
+	}
+
+	public void writeInt(long position, int data) throws IOException {
+		if (writeMode == WriteMode.WRITE_THROUGH) {
+			scratch.putInt(0, data);
+			writeThrough(position, scratch, 4);
+			return;
+		}
+
+		int offset = (int) (position & PAGE_MASK);
+		if (offset <= (PAGE_SIZE - 4)) {
+			Page page = getPage(position >>> PAGE_SHIFT);
+			page.data.putInt(offset, data);
+			markWritten(page, offset + 4);
+		} else {
+			writeStraddled(position, data, 4);
+		}
+		size = Math.max(size, position + 4);
+	}
+
+	public void writeLong(long position, long data) throws IOException {
+		if (writeMode == WriteMode.WRITE_THROUGH) {
+			scratch.putLong(0, data);
+			writeThrough(position, scratch, 8);
+			return;
+		}
+
+		int offset = (int) (position & PAGE_MASK);
+		if (offset <= (PAGE_SIZE - 8)) {
+			Page page = getPage(position >>> PAGE_SHIFT);
+			page.data.putLong(offset, data);
+			markWritten(page, offset + 8);
+		} else {
+			writeStraddled(position, data, 8);
+		}
+		size = Math.max(size, position + 8);
+	}
+
+	/**
+	 * Reads the word at <code>position</code> in the format of <code>codec</code>.
+	 */
+	public long readWord(long position) throws IOException {
+		int wordSize = codec.wordSize;
+		checkAvailable(position, wordSize);
+
+		int offset = (int) (position & PAGE_MASK);
+		if (offset <= (PAGE_SIZE - wordSize))
+			return codec.getWord(getPage(position >>> PAGE_SHIFT).data, offset);
+
+		return codec.decode(readStraddled(position, wordSize));
 	}
-	
+
+	public void writeWord(long position, long word) throws IOException {
+		int wordSize = codec.wordSize;
+		if (writeMode == WriteMode.WRITE_THROUGH) {
+			codec.putWord(scratch, 0, word);
+			writeThrough(position, scratch, wordSize);
+			return;
+		}
+
+		int offset = (int) (position & PAGE_MASK);
+		if (offset <= (PAGE_SIZE - wordSize)) {
+			Page page = getPage(position >>> PAGE_SHIFT);
+			codec.putWord(page.data, offset, word);
+			markWritten(page, offset + wordSize);
+		} else {
+			writeStraddled(position, codec.encode(word), wordSize);
+		}
+		size = Math.max(size, position + wordSize);
+	}
+
+	/**
+	 * Reads <code>len</code> longs starting at <code>position</code>, copying each run that lies within one page at
+	 * once.
+	 */
+	public void readLongs(long position, long dst[], int off, int len) throws IOException {
+		checkAvailable(position, ((long) len) << 3);
+
+		while (len > 0) {
+			int offset = (int) (position & PAGE_MASK);
+			int run = Math.min(len, (PAGE_SIZE - offset) >> 3);
+			if (run == 0) {
+				dst[off] = readStraddled(position, 8);
+				run = 1;
+			} else {
+				view(getPage(position >>> PAGE_SHIFT), offset).asLongBuffer().get(dst, off, run);
+			}
+			position += run << 3;
+			off += run;
+			len -= run;
+		}
+	}
+
+	/**
+	 * Writes <code>len</code> longs starting at <code>position</code>. Each run that lies within one page is copied at
+	 * once; in <code>WRITE_THROUGH</code> mode, up to a page is written to the file per channel write.
+	 */
+	public void writeLongs(long position, long src[], int off, int len) throws IOException {
+		while (len > 0) {
+			int run;
+			if (writeMode == WriteMode.WRITE_THROUGH) {
+				run = Math.min(len, PAGE_SIZE >> 3);
+				ByteBuffer bulk = getBulkScratch();
+				bulk.asLongBuffer().put(src, off, run);
+				writeThrough(position, bulk, run << 3);
+			} else {
+				int offset = (int) (position & PAGE_MASK);
+				run = Math.min(len, (PAGE_SIZE - offset) >> 3);
+				if (run == 0) {
+					writeStraddled(position, src[off], 8);
+					run = 1;
+				} else {
+					Page page = getPage(position >>> PAGE_SHIFT);
+					view(page, offset).asLongBuffer().put(src, off, run);
+					markWritten(page, offset + (run << 3));
+				}
+				size = Math.max(size, position + (run << 3));
+			}
+			position += run << 3;
+			off += run;
+			len -= run;
+		}
+	}
+
+	public void readInts(long position, int dst[], int off, int len) throws IOException {
+		checkAvailable(position, ((long) len) << 2);
+
+		while (len > 0) {
+			int offset = (int) (position & PAGE_MASK);
+			int run = Math.min(len, (PAGE_SIZE - offset) >> 2);
+			if (run == 0) {
+				dst[off] = (int) readStraddled(position, 4);
+				run = 1;
+			} else {
+				view(getPage(position >>> PAGE_SHIFT), offset).asIntBuffer().get(dst, off, run);
+			}
+			position += run << 2;
+			off += run;
+			len -= run;
+		}
+	}
+
+	public void writeInts(long position, int src[], int off, int len) throws IOException {
+		while (len > 0) {
+			int run;
+			if (writeMode == WriteMode.WRITE_THROUGH) {
+				run = Math.min(len, PAGE_SIZE >> 2);
+				ByteBuffer bulk = getBulkScratch();
+				bulk.asIntBuffer().put(src, off, run);
+				writeThrough(position, bulk, run << 2);
+			} else {
+				int offset = (int) (position & PAGE_MASK);
+				run = Math.min(len, (PAGE_SIZE - offset) >> 2);
+				if (run == 0) {
+					writeStraddled(position, src[off], 4);
+					run = 1;
+				} else {
+					Page page = getPage(position >>> PAGE_SHIFT);
+					view(page, offset).asIntBuffer().put(src, off, run);
+					markWritten(page, offset + (run << 2));
+				}
+				size = Math.max(size, position + (run << 2));
+			}
+			position += run << 2;
+			off += run;
+			len -= run;
+		}
+	}
+
+	/**
+	 * Writes back all dirty pages in file order (none in <code>WRITE_THROUGH</code> mode).
+	 */
+	public void flush() throws IOException {
+		List<Page> dirty = new ArrayList<Page>();
+		for (Page page : pages.values()) {
+			if (page.dirty)
+				dirty.add(page);
+		}
+		Collections.sort(dirty);
+		for (Page page : dirty) {
+			writeBack(page);
+		}
+	}
+
 	public void close() throws IOException {
+		flush();
+		pages.clear();
+		lastPage = null;
 		file.close();
 	}
+
+	private void checkAvailable(long position, long byteCount) throws IOException {
+		if ((position + byteCount) > size) // the file may have grown
+			size = Math.max(size, channel.size());
+		if ((position < 0L) || ((position + byteCount) > size))
+			throw new EOFException(String.format("Cannot read %d bytes at offset %d of a file of length %d",
+					byteCount, position, size));
+	}
+
+	private long readStraddled(long position, int byteCount) throws IOException {
+		long value = 0L;
+		for (int i = 0; i < byteCount; i++) {
+			long bytePosition = position + i;
+			Page page = getPage(bytePosition >>> PAGE_SHIFT);
+			value |= (page.data.get((int) (bytePosition & PAGE_MASK)) & 0xffL) << (i << 3);
+		}
+		return value;
+	}
+
+	private void writeStraddled(long position, long data, int byteCount) throws IOException {
+		for (int i = 0; i < byteCount; i++) {
+			long bytePosition = position + i;
+			Page page = getPage(bytePosition >>> PAGE_SHIFT);
+			int offset = (int) (bytePosition & PAGE_MASK);
+			page.data.put(offset, (byte) (data >> (i << 3)));
+			markWritten(page, offset + 1);
+		}
+	}
+
+	/**
+	 * Writes the first <code>byteCount</code> bytes of <code>source</code> to the file at <code>position</code>, and
+	 * into any cached pages they fall on.
+	 */
+	private void writeThrough(long position, ByteBuffer source, int byteCount) throws IOException {
+		if (position < 0L)
+			throw new IOException("Negative write offset " + position);
+
+		source.position(0).limit(byteCount);
+		while (source.hasRemaining()) {
+			channel.write(source, position + source.position());
+		}
+
+		for (int i = 0; i < byteCount;) {
+			long bytePosition = position + i;
+			long index = bytePosition >>> PAGE_SHIFT;
+			int offset = (int) (bytePosition & PAGE_MASK);
+			int run = Math.min(byteCount - i, PAGE_SIZE - offset);
+			Page page = ((lastPage != null) && (lastPage.index == index)) ? lastPage : pages.get(index);
+			if (page != null) {
+				ByteBuffer data = page.data.duplicate();
+				data.position(offset);
+				source.limit(i + run).position(i);
+				data.put(source);
+				if ((offset + run) > page.length)
+					page.length = offset + run;
+			}
+			i += run;
+		}
+		source.clear();
+		size = Math.max(size, position + byteCount);
+	}
+
+	/**
+	 * Little-endian view of <code>page</code> starting at <code>offset</code>.
+	 */
+	private static ByteBuffer view(Page page, int offset) {
+		ByteBuffer data = page.data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		data.position(offset);
+		return data;
+	}
+
+	private ByteBuffer getBulkScratch() {
+		if (bulkScratch == null)
+			bulkScratch = ByteBuffer.allocate(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		bulkScratch.clear();
+		return bulkScratch;
+	}
+
+	private void markWritten(Page page, int end) {
+		page.dirty = true;
+		if (end > page.length)
+			page.length = end;
+	}
+
+	private Page getPage(long index) throws IOException {
+		if ((lastPage != null) && (lastPage.index == index))
+			return lastPage;
+
+		Page page = pages.get(index);
+		if (page == null) {
+			page = (pages.size() >= cachePages) ? evict() : new Page();
+			page.index = index;
+			page.dirty = false;
+			load(page);
+			pages.put(index, page);
+		}
+		lastPage = page;
+		return page;
+	}
+
+	/**
+	 * Removes the least recently used page, writing it back if dirty, and returns it for reuse.
+	 */
+	private Page evict() throws IOException {
+		Iterator<Page> lru = pages.values().iterator();
+		Page page = lru.next();
+		lru.remove();
+		if (page.dirty)
+			writeBack(page);
+		if (page == lastPage)
+			lastPage = null;
+		return page;
+	}
+
+	private void load(Page page) throws IOException {
+		long start = page.index << PAGE_SHIFT;
+		long fileSize = channel.size();
+		page.length = 0;
+		if (start < fileSize) {
+			ByteBuffer data = page.data.duplicate();
+			data.limit((int) Math.min(PAGE_SIZE, fileSize - start));
+			while (data.hasRemaining()) {
+				if (channel.read(data, start + data.position()) < 0)
+					break;
+			}
+			page.length = data.position();
+		}
+		for (int i = page.length; i < PAGE_SIZE; i++) { // clear what a reused page held beyond the end of the file
+			page.data.put(i, (byte) 0);
+		}
+	}
+
+	private void writeBack(Page page) throws IOException {
+		long start = page.index << PAGE_SHIFT;
+		ByteBuffer data = page.data.duplicate();
+		data.position(0).limit(page.length);
+		while (data.hasRemaining()) {
+			channel.write(data, start + data.position());
+		}
+		page.dirty = false;
+	}
 }
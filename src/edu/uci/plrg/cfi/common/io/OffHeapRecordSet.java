@@ -0,0 +1,150 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Open-addressing hash set of fixed-width records held in a direct buffer, counting the occurrences of each record.
+ * Each slot holds the record's words followed by its count; a zero count marks an empty slot. Probing is linear, and
+ * the table doubles when it is half full. Not thread safe.
+ */
+public class OffHeapRecordSet {
+
+	private static final int MINIMUM_CAPACITY = 1 << 4;
+
+	public final int wordsPerRecord;
+
+	private final int slotSize;
+	private final int maximumCapacity;
+	private ByteBuffer table;
+	private int capacity;
+	private int size = 0;
+
+	public OffHeapRecordSet(int wordsPerRecord, int expectedRecords) {
+		this.wordsPerRecord = wordsPerRecord;
+		this.slotSize = (wordsPerRecord + 1) << 3;
+		this.maximumCapacity = Integer.highestOneBit(Integer.MAX_VALUE / slotSize);
+
+		int capacity = MINIMUM_CAPACITY;
+		while ((capacity < maximumCapacity) && (capacity < (expectedRecords << 1))) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	public static long hash(long words[], int off, int wordCount) {
+		long hash = 0x9e3779b97f4a7c15L;
+		for (int i = 0; i < wordCount; i++) {
+			hash = (hash ^ words[off + i]) * 0xbf58476d1ce4e5b9L;
+			hash ^= (hash >>> 31);
+		}
+		hash *= 0x94d049bb133111ebL;
+		return hash ^ (hash >>> 29);
+	}
+
+	/**
+	 * Adds one occurrence of the record at <code>words[off]</code> and returns its occurrence count.
+	 */
+	public long add(long words[], int off) {
+		if (size >= (capacity >> 1))
+			grow();
+
+		int mask = capacity - 1;
+		for (int slot = (int) hash(words, off, wordsPerRecord) & mask;; slot = (slot + 1) & mask) {
+			int base = slot * slotSize;
+			long count = table.getLong(base + slotSize - 8);
+			if (count == 0L) {
+				for (int w = 0; w < wordsPerRecord; w++) {
+					table.putLong(base + (w << 3), words[off + w]);
+				}
+				table.putLong(base + slotSize - 8, 1L);
+				size++;
+				return 1L;
+			}
+			if (matches(base, words, off)) {
+				table.putLong(base + slotSize - 8, ++count);
+				return count;
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * First occupied slot at or after <code>slot</code>, or -1 if there is none. Iterate with
+	 * <code>for (int s = set.nextSlot(0); s >= 0; s = set.nextSlot(s + 1))</code>.
+	 */
+	public int nextSlot(int slot) {
+		for (; slot < capacity; slot++) {
+			if (table.getLong((slot * slotSize) + slotSize - 8) != 0L)
+				return slot;
+		}
+		return -1;
+	}
+
+	public long getWord(int slot, int wordIndex) {
+		return table.getLong((slot * slotSize) + (wordIndex << 3));
+	}
+
+	public void getWords(int slot, long dst[], int off) {
+		int base = slot * slotSize;
+		for (int w = 0; w < wordsPerRecord; w++) {
+			dst[off + w] = table.getLong(base + (w << 3));
+		}
+	}
+
+	public long getCount(int slot) {
+		return table.getLong((slot * slotSize) + slotSize - 8);
+	}
+
+	private boolean matches(int base, long words[], int off) {
+		for (int w = 0; w < wordsPerRecord; w++) {
+			if (table.getLong(base + (w << 3)) != words[off + w])
+				return false;
+		}
+		return true;
+	}
+
+	private void allocate(int capacity) {
+		this.capacity = capacity;
+		this.table = ByteBuffer.allocateDirect(capacity * slotSize).order(ByteOrder.nativeOrder());
+	}
+
+	private void grow() {
+		if (capacity >= maximumCapacity)
+			throw new IllegalStateException(String.format("Record set is full at %d records of %d words", size,
+					wordsPerRecord));
+
+		ByteBuffer old = table;
+		int oldCapacity = capacity;
+		allocate(capacity << 1);
+
+		long words[] = new long[wordsPerRecord];
+		int mask = capacity - 1;
+		for (int oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+			int oldBase = oldSlot * slotSize;
+			long count = old.getLong(oldBase + slotSize - 8);
+			if (count == 0L)
+				continue;
+
+			for (int w = 0; w < wordsPerRecord; w++) {
+				words[w] = old.getLong(oldBase + (w << 3));
+			}
+			int slot = (int) hash(words, 0, wordsPerRecord) & mask;
+			while (table.getLong((slot * slotSize) + slotSize - 8) != 0L) {
+				slot = (slot + 1) & mask;
+			}
+			int base = slot * slotSize;
+			for (int w = 0; w < wordsPerRecord; w++) {
+				table.putLong(base + (w << 3), words[w]);
+			}
+			table.putLong(base + slotSize - 8, count);
+		}
+	}
+}
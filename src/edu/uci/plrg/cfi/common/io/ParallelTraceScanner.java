@@ -0,0 +1,141 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scans a trace file of fixed-width records in parallel. The file is split into record-aligned chunks, each chunk is
+ * read by its own <code>TraceRecordReader</code> using positional reads on one shared <code>FileChannel</code>, and
+ * the per-chunk results are combined in file order. If any chunk fails, the chunks still queued or running are
+ * cancelled before the failure is rethrown.
+ */
+public class ParallelTraceScanner {
+
+	public interface ChunkReducer<ResultType> {
+		/**
+		 * Called concurrently, once per chunk. The reader covers only the chunk's records.
+		 */
+		ResultType reduceChunk(TraceRecordReader chunk) throws IOException;
+
+		/**
+		 * Combines the results of two adjacent chunks, <code>first</code> preceding <code>second</code> in the file.
+		 */
+		ResultType combine(ResultType first, ResultType second);
+	}
+
+	public static class Chunk {
+		public final long firstRecord;
+		public final long endRecord;
+
+		Chunk(long firstRecord, long endRecord) {
+			this.firstRecord = firstRecord;
+			this.endRecord = endRecord;
+		}
+	}
+
+	private static final int CHUNKS_PER_THREAD = 4;
+	private static final long MINIMUM_CHUNK_RECORDS = 1L << 16;
+	private static final int CHUNK_BUFFER_SIZE = 1 << 18;
+
+	private final int threadCount;
+	private final ExecutorService executor;
+
+	public ParallelTraceScanner() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelTraceScanner(int threadCount) {
+		this.threadCount = threadCount;
+		this.executor = Executors.newFixedThreadPool(threadCount);
+	}
+
+	/**
+	 * Splits <code>recordCount</code> records into at most <code>chunkCount</code> contiguous chunks of at least
+	 * <code>minimumChunkRecords</code> each (except possibly the last).
+	 */
+	public static List<Chunk> split(long recordCount, int chunkCount, long minimumChunkRecords) {
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		long chunkRecords = Math.max(minimumChunkRecords, (recordCount + chunkCount - 1) / chunkCount);
+		for (long first = 0L; first < recordCount; first += chunkRecords) {
+			chunks.add(new Chunk(first, Math.min(recordCount, first + chunkRecords)));
+		}
+		return chunks;
+	}
+
+	public <ResultType> ResultType scan(File file, final int wordsPerRecord, final ChunkReducer<ResultType> reducer)
+			throws IOException {
+		if (wordsPerRecord < 1)
+			throw new IllegalArgumentException("Records must have at least one word");
+
+		final String description = "file:" + file.getAbsolutePath();
+		final FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			long recordCount = channel.size() / (wordsPerRecord << 3);
+			List<Future<ResultType>> results = new ArrayList<Future<ResultType>>();
+			for (final Chunk chunk : split(recordCount, threadCount * CHUNKS_PER_THREAD, MINIMUM_CHUNK_RECORDS)) {
+				results.add(executor.submit(new Callable<ResultType>() {
+					@Override
+					public ResultType call() throws IOException {
+						TraceRecordReader reader = new TraceRecordReader(channel, false, description, wordsPerRecord,
+								chunk.firstRecord, chunk.endRecord, CHUNK_BUFFER_SIZE);
+						try {
+							return reducer.reduceChunk(reader);
+						} finally {
+							reader.close();
+						}
+					}
+				}));
+			}
+
+			if (results.isEmpty())
+				return null;
+
+			boolean combined = false;
+			try {
+				ResultType result = null;
+				for (int i = 0; i < results.size(); i++) {
+					ResultType chunkResult = waitFor(results.get(i), description);
+					result = (i == 0) ? chunkResult : reducer.combine(result, chunkResult);
+				}
+				combined = true;
+				return result;
+			} finally {
+				if (!combined) { // don't leave the remaining chunks scanning a channel that is about to be closed
+					for (Future<ResultType> pending : results) {
+						pending.cancel(true);
+					}
+				}
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private static <ResultType> ResultType waitFor(Future<ResultType> result, String description) throws IOException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TraceDataSourceException("Interrupted while scanning " + description, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new TraceDataSourceException("Failed to scan " + description, e);
+		}
+	}
+}
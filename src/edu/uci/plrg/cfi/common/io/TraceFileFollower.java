@@ -0,0 +1,153 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Follows a file of fixed-width little-endian records while it is still being written, like <code>tail -f</code>.
+ * The file length is polled, and only complete records are handed out: a partially written record stays in the file
+ * until its last byte arrives. The file need not exist yet when following starts. Records are consumed either by
+ * blocking on <code>next()</code> or by passing a <code>RecordListener</code> to <code>follow()</code>; both end once
+ * <code>stop()</code> has been called and the complete records written so far have been delivered.
+ */
+public class TraceFileFollower {
+
+	public interface RecordListener {
+		/**
+		 * @param words
+		 *            the words of the record; the array is reused for the next record
+		 */
+		void recordAvailable(long words[], long recordIndex) throws IOException;
+	}
+
+	public static final long DEFAULT_POLL_MILLIS = 250L;
+
+	private static final int BUFFER_RECORDS = 1 << 12;
+
+	public final String description;
+	public final int wordsPerRecord;
+
+	private final File file;
+	private final int recordSize;
+	private final long pollMillis;
+	private final ByteBuffer buffer;
+
+	private FileChannel channel = null;
+	private long position = 0L; // file offset following the bytes already buffered
+	private long recordIndex = 0L;
+	private volatile boolean stopped = false;
+
+	public TraceFileFollower(File file, int wordsPerRecord) {
+		this(file, wordsPerRecord, DEFAULT_POLL_MILLIS);
+	}
+
+	public TraceFileFollower(File file, int wordsPerRecord, long pollMillis) {
+		if (wordsPerRecord < 1)
+			throw new IllegalArgumentException("Records must have at least one word");
+		if (pollMillis < 1L)
+			throw new IllegalArgumentException("The poll interval must be at least 1ms");
+
+		this.file = file;
+		this.description = "file:" + file.getAbsolutePath();
+		this.wordsPerRecord = wordsPerRecord;
+		this.recordSize = wordsPerRecord << 3;
+		this.pollMillis = pollMillis;
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * recordSize).order(ByteOrder.LITTLE_ENDIAN);
+		this.buffer.limit(0);
+	}
+
+	/**
+	 * Index of the next record to be handed out, which is also the number of records handed out so far.
+	 */
+	public long getRecordIndex() {
+		return recordIndex;
+	}
+
+	/**
+	 * Copies the next record into <code>words[off]</code> if one is complete in the file, without waiting.
+	 */
+	public boolean poll(long words[], int off) throws IOException {
+		if ((buffer.remaining() < recordSize) && !refill())
+			return false;
+
+		for (int w = 0; w < wordsPerRecord; w++) {
+			words[off + w] = buffer.getLong();
+		}
+		recordIndex++;
+		return true;
+	}
+
+	/**
+	 * Waits for the next complete record and copies it into <code>words[off]</code>. Returns false only after
+	 * <code>stop()</code>, once no complete record remains.
+	 */
+	public boolean next(long words[], int off) throws IOException, InterruptedException {
+		while (!poll(words, off)) {
+			if (stopped) {
+				// records may have been completed between the last poll and the stop
+				return poll(words, off);
+			}
+			Thread.sleep(pollMillis);
+		}
+		return true;
+	}
+
+	/**
+	 * Delivers every record to <code>listener</code> on the calling thread until <code>stop()</code> is called.
+	 */
+	public void follow(RecordListener listener) throws IOException, InterruptedException {
+		long words[] = new long[wordsPerRecord];
+		while (next(words, 0)) {
+			listener.recordAvailable(words, recordIndex - 1);
+		}
+	}
+
+	/**
+	 * Ends <code>next()</code> and <code>follow()</code> once the complete records in the file have been delivered.
+	 * May be called from any thread.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	public void close() throws IOException {
+		stopped = true;
+		if (channel != null)
+			channel.close();
+	}
+
+	/**
+	 * Reads as many complete records as fit into the (empty) buffer. Returns false if the file holds none yet.
+	 */
+	private boolean refill() throws IOException {
+		if (channel == null) {
+			if (!file.isFile())
+				return false;
+			channel = new FileInputStream(file).getChannel();
+		}
+
+		long size = channel.size();
+		if (size < position)
+			throw new TraceDataSourceException(String.format(
+					"%s was truncated to %d bytes while following it at offset %d", description, size, position));
+
+		long completeBytes = ((size - position) / recordSize) * recordSize;
+		if (completeBytes == 0L)
+			return false;
+
+		buffer.clear();
+		buffer.limit((int) Math.min(buffer.capacity(), completeBytes));
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new TraceDataSourceException(String.format("%s ended at offset %d, before its reported size %d",
+						description, position + buffer.position(), size));
+		}
+		position += buffer.position();
+		buffer.flip();
+		return true;
+	}
+}
@@ -0,0 +1,33 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+
+/**
+ * The fixed-width record files of a run directory, named <code>*.&lt;type&gt;.*.dat</code>.
+ */
+public enum TraceFileType {
+	GRAPH_EDGE("graph-edge", 2),
+	GRAPH_NODE("graph-node", 2),
+	CROSS_MODULE("cross-module", 3);
+
+	public final String id;
+	public final int wordsPerRecord;
+
+	private TraceFileType(String id, int wordsPerRecord) {
+		this.id = id;
+		this.wordsPerRecord = wordsPerRecord;
+	}
+
+	public boolean matches(File file) {
+		String name = file.getName();
+		return name.endsWith(".dat") && (name.indexOf("." + id + ".") > 0);
+	}
+
+	public static TraceFileType forFile(File file) {
+		for (TraceFileType type : values()) {
+			if (type.matches(file))
+				return type;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,340 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Removes duplicate records from a file of fixed-width little-endian records, counting the occurrences of each
+ * distinct record. The input is scanned in parallel and every record is hashed into one of several partition files,
+ * so that all copies of a record land in the same partition. A partition still too large for the memory budget is
+ * partitioned again, one at a time and on freshly mixed hash bits, so that no more than one pass's partition files
+ * are open at once. The partitions are then deduplicated in parallel, each in its own <code>OffHeapRecordSet</code>.
+ * The partition buffers, the scanning threads' batches and the record sets being filled at once all stay within the
+ * memory budget. Unique records are written in no particular order; the count file, if requested, holds one 64-bit
+ * count per unique record in the same order.
+ */
+public class TraceRecordDeduplicator {
+
+	private static final long MAXIMUM_PARTITION_RECORDS = 1L << 23;
+	private static final int MAXIMUM_OPEN_PARTITIONS = 1 << 10;
+	// beyond this, a partition that is still too large holds copies of a few records, not too many distinct ones
+	private static final int MAXIMUM_PARTITION_DEPTH = 4;
+	private static final int PARTITION_BUFFER_SIZE = 1 << 16;
+	private static final int PARTITION_BATCH_RECORDS = 1 << 10;
+	private static final int READ_BATCH_RECORDS = 1 << 12;
+	private static final int INITIAL_SET_RECORDS = 1 << 16;
+	// a set of n records peaks at 6n slots, while growing from 2n to 4n slots
+	private static final int PEAK_SLOTS_PER_RECORD = 6;
+
+	private static class Partition {
+		final File file;
+		final int depth;
+		LittleEndianOutputStream output; // null once closed, releasing the buffer
+		long recordCount = 0L;
+
+		Partition(File file, int depth) throws IOException {
+			this.file = file;
+			this.depth = depth;
+			this.output = new LittleEndianOutputStream(file, PARTITION_BUFFER_SIZE);
+		}
+
+		synchronized void write(long words[], int recordCount, int wordsPerRecord) throws IOException {
+			output.writeLongs(words, 0, recordCount * wordsPerRecord);
+			this.recordCount += recordCount;
+		}
+
+		synchronized void close() throws IOException {
+			if (output != null) {
+				LittleEndianOutputStream closing = output;
+				output = null;
+				closing.close();
+			}
+		}
+	}
+
+	public final int wordsPerRecord;
+
+	private final int threadCount;
+	private final long maximumPartitionRecords;
+	private final int maximumOpenPartitions;
+	private final File tempDirectory;
+
+	private long recordCount = 0L;
+	private long uniqueRecordCount = 0L;
+
+	public TraceRecordDeduplicator(int wordsPerRecord) {
+		this(wordsPerRecord, Runtime.getRuntime().availableProcessors(), null);
+	}
+
+	public TraceRecordDeduplicator(int wordsPerRecord, int threadCount, File tempDirectory) {
+		this(wordsPerRecord, threadCount, Long.MAX_VALUE, tempDirectory); // bounded only by the partition size
+	}
+
+	public TraceRecordDeduplicator(int wordsPerRecord, int threadCount, long memoryBudget, File tempDirectory) {
+		this(wordsPerRecord, threadCount, memoryBudget, MAXIMUM_OPEN_PARTITIONS, tempDirectory);
+	}
+
+	/**
+	 * @param memoryBudget
+	 *            bytes available to the open partitions while partitioning, and to the record sets of the
+	 *            <code>threadCount</code> partitions deduplicated at once
+	 * @param maximumOpenPartitions
+	 *            number of partition files open at once, at least 2
+	 * @param tempDirectory
+	 *            where partitions are spilled, or null for the system default
+	 */
+	public TraceRecordDeduplicator(int wordsPerRecord, int threadCount, long memoryBudget, int maximumOpenPartitions,
+			File tempDirectory) {
+		threadCount = Math.max(1, threadCount);
+		long peakBytesPerRecord = (long) PEAK_SLOTS_PER_RECORD * ((wordsPerRecord + 1) << 3);
+		long budgetRecords = memoryBudget / threadCount / peakBytesPerRecord;
+		// each open partition has its output buffer, plus a batch in each scanning thread
+		long bytesPerPartition = PARTITION_BUFFER_SIZE
+				+ ((long) threadCount * PARTITION_BATCH_RECORDS * (wordsPerRecord << 3));
+		long budgetPartitions = Math.min(maximumOpenPartitions, memoryBudget / bytesPerPartition);
+		if ((budgetRecords < 1L) || (budgetPartitions < 2L))
+			throw new IllegalArgumentException(String.format(
+					"Memory budget of %d bytes and %d open partitions are too small for %d threads", memoryBudget,
+					maximumOpenPartitions, threadCount));
+
+		this.wordsPerRecord = wordsPerRecord;
+		this.threadCount = threadCount;
+		this.maximumPartitionRecords = Math.min(MAXIMUM_PARTITION_RECORDS, budgetRecords);
+		this.maximumOpenPartitions = (int) budgetPartitions;
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * @param countOutput
+	 *            file for the occurrence counts, or null to skip them
+	 */
+	public void deduplicate(File input, File uniqueOutput, File countOutput) throws IOException {
+		LittleEndianOutputStream unique = new LittleEndianOutputStream(uniqueOutput, 1 << 16);
+		LittleEndianOutputStream counts = null;
+		try {
+			if (countOutput != null)
+				counts = new LittleEndianOutputStream(countOutput, 1 << 16);
+			deduplicate(input, unique, counts);
+		} finally {
+			unique.close();
+			if (counts != null)
+				counts.close();
+		}
+	}
+
+	/**
+	 * Writes each unique record followed by its occurrence count, as records of <code>wordsPerRecord + 1</code>
+	 * words, so that the counts stay with their records through a later sort.
+	 */
+	public void deduplicateCounted(File input, File countedOutput) throws IOException {
+		LittleEndianOutputStream counted = new LittleEndianOutputStream(countedOutput, 1 << 16);
+		try {
+			deduplicate(input, counted, counted);
+		} finally {
+			counted.close();
+		}
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	public long getUniqueRecordCount() {
+		return uniqueRecordCount;
+	}
+
+	private void deduplicate(File input, LittleEndianOutputStream unique, LittleEndianOutputStream counts)
+			throws IOException {
+		List<Partition> partitions = new ArrayList<Partition>();
+		try {
+			recordCount = partition(input, input.length() / (wordsPerRecord << 3), 0, partitions);
+
+			// partitions appended by a pass are checked in turn, so oversized ones are split again
+			for (int i = 0; i < partitions.size(); i++) {
+				Partition partition = partitions.get(i);
+				if ((partition.recordCount > maximumPartitionRecords) && (partition.depth < MAXIMUM_PARTITION_DEPTH)) {
+					partition(partition.file, partition.recordCount, partition.depth + 1, partitions);
+					partitions.remove(i--);
+					partition.file.delete();
+				}
+			}
+
+			uniqueRecordCount = deduplicatePartitions(partitions, unique, counts);
+		} finally {
+			for (Partition partition : partitions) {
+				try {
+					partition.close();
+				} catch (IOException e) { // already failing; the file is deleted anyway
+				}
+				partition.file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Partitions the <code>records</code> of <code>input</code> into new partitions at <code>depth</code>, which are
+	 * appended to <code>partitions</code> and closed, and returns the number of records read.
+	 */
+	private long partition(File input, long records, int depth, List<Partition> partitions) throws IOException {
+		long wanted = (records + maximumPartitionRecords - 1) / maximumPartitionRecords;
+		int partitionCount = (int) Math.min(maximumOpenPartitions, Math.max((depth == 0) ? threadCount : 2, wanted));
+
+		Partition pass[] = new Partition[partitionCount];
+		try {
+			for (int i = 0; i < partitionCount; i++) {
+				File file = File.createTempFile("trace-dedup", ".partition", tempDirectory);
+				file.deleteOnExit();
+				pass[i] = new Partition(file, depth);
+				partitions.add(pass[i]);
+			}
+			return partition(input, pass, depth);
+		} finally {
+			for (Partition partition : pass) {
+				if (partition != null)
+					partition.close();
+			}
+		}
+	}
+
+	private long partition(File input, final Partition partitions[], final int depth) throws IOException {
+		ParallelTraceScanner scanner = new ParallelTraceScanner(threadCount);
+		try {
+			Long count = scanner.scan(input, wordsPerRecord, new ParallelTraceScanner.ChunkReducer<Long>() {
+				@Override
+				public Long reduceChunk(TraceRecordReader chunk) throws IOException {
+					int batchWords = PARTITION_BATCH_RECORDS * wordsPerRecord;
+					long batches[][] = new long[partitions.length][batchWords];
+					int batchSizes[] = new int[partitions.length];
+					long words[] = new long[wordsPerRecord];
+					long count = 0L;
+
+					while (chunk.hasNext()) {
+						chunk.next().getWords(words, 0);
+						int p = partitionOf(mix(OffHeapRecordSet.hash(words, 0, wordsPerRecord), depth), partitions.length);
+						System.arraycopy(words, 0, batches[p], batchSizes[p] * wordsPerRecord, wordsPerRecord);
+						if (++batchSizes[p] == PARTITION_BATCH_RECORDS) {
+							partitions[p].write(batches[p], batchSizes[p], wordsPerRecord);
+							batchSizes[p] = 0;
+						}
+						count++;
+					}
+					for (int p = 0; p < partitions.length; p++) {
+						if (batchSizes[p] > 0)
+							partitions[p].write(batches[p], batchSizes[p], wordsPerRecord);
+					}
+					return count;
+				}
+
+				@Override
+				public Long combine(Long first, Long second) {
+					return first + second;
+				}
+			});
+			return (count == null) ? 0L : count;
+		} finally {
+			scanner.shutdown();
+		}
+	}
+
+	private long deduplicatePartitions(List<Partition> partitions, final LittleEndianOutputStream unique,
+			final LittleEndianOutputStream counts) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (final Partition partition : partitions) {
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws IOException {
+						return deduplicatePartition(partition, unique, counts);
+					}
+				}));
+			}
+
+			long uniqueCount = 0L;
+			for (Future<Integer> result : results) {
+				uniqueCount += waitFor(result);
+			}
+			return uniqueCount;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private int deduplicatePartition(Partition partition, LittleEndianOutputStream unique,
+			LittleEndianOutputStream counts) throws IOException {
+		// start small: duplicate-heavy partitions hold far fewer unique records than they have records
+		OffHeapRecordSet set = new OffHeapRecordSet(wordsPerRecord, (int) Math.min(partition.recordCount,
+				Math.min(INITIAL_SET_RECORDS, maximumPartitionRecords)));
+
+		LittleEndianInputStream input = new LittleEndianInputStream(partition.file, 1 << 16);
+		try {
+			long batch[] = new long[READ_BATCH_RECORDS * wordsPerRecord];
+			long remaining = partition.recordCount;
+			while (remaining > 0L) {
+				int batchRecords = (int) Math.min(READ_BATCH_RECORDS, remaining);
+				input.readLongs(batch, 0, batchRecords * wordsPerRecord);
+				for (int i = 0; i < batchRecords; i++) {
+					set.add(batch, i * wordsPerRecord);
+				}
+				remaining -= batchRecords;
+			}
+		} finally {
+			input.close();
+		}
+		partition.file.delete();
+
+		long words[] = new long[wordsPerRecord];
+		synchronized (unique) {
+			for (int slot = set.nextSlot(0); slot >= 0; slot = set.nextSlot(slot + 1)) {
+				set.getWords(slot, words, 0);
+				unique.writeLongs(words, 0, wordsPerRecord);
+				if (counts != null)
+					counts.writeLong(set.getCount(slot));
+			}
+		}
+		return set.size();
+	}
+
+	/**
+	 * Hash bits for the partitioning pass at <code>depth</code>. Records of one partition share the high bits of their
+	 * hash, so each later pass mixes the hash again to spread them over its partitions.
+	 */
+	private static long mix(long hash, int depth) {
+		if (depth == 0)
+			return hash;
+
+		hash += depth * 0x9e3779b97f4a7c15L;
+		hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+		hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return hash ^ (hash >>> 33);
+	}
+
+	/**
+	 * Maps the high half of <code>hash</code> onto [0, partitionCount); the low half indexes the record set.
+	 */
+	private static int partitionOf(long hash, int partitionCount) {
+		return (int) (((hash >>> 32) * partitionCount) >>> 32);
+	}
+
+	private static int waitFor(Future<Integer> result) throws IOException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TraceDataSourceException("Interrupted while deduplicating trace records", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new TraceDataSourceException("Failed to deduplicate trace records", e);
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sidecar index over one word of a file of fixed-width little-endian records, for finding all records with a given
+ * key without scanning the file. The sidecar is a table of (key, record index) entries sorted by unsigned key, which
+ * is memory-mapped and binary searched; matching records are then read from the data file through a
+ * <code>LittleEndianRandomAccessFile</code>. Layout (all values little-endian):
+ *
+ * <pre>
+ * header:  int MAGIC, int VERSION, int wordsPerRecord, int keyWord, long entryCount, long dataLength
+ * entries: { long key, long recordIndex }[entryCount]
+ * </pre>
+ *
+ * The data file's length is recorded so that a stale sidecar is detected when it is opened. Not thread safe.
+ */
+public class TraceRecordIndex {
+
+	static final int MAGIC = 0x49545343; // "CSTI"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+
+	private static final int ENTRY_SHIFT = 4;
+	private static final int WINDOW_SHIFT = 30;
+	private static final long WINDOW_MASK = (1L << WINDOW_SHIFT) - 1L;
+	private static final long BUILD_MEMORY_BUDGET = 256L << 20;
+
+	public final String description;
+	public final int wordsPerRecord;
+	public final int keyWord;
+
+	private final long entryCount;
+	private final MappedByteBuffer windows[];
+	private final LittleEndianRandomAccessFile data;
+
+	public TraceRecordIndex(File dataFile, File indexFile) throws IOException {
+		description = "file:" + indexFile.getAbsolutePath();
+
+		FileChannel channel = new FileInputStream(indexFile).getChannel();
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining()) {
+				if (channel.read(header, header.position()) < 0)
+					throw new TraceDataSourceException(description + " is too short to be a trace record index");
+			}
+			if (header.getInt(0) != MAGIC)
+				throw new TraceDataSourceException(description + " is not a trace record index");
+			if (header.getInt(4) != VERSION)
+				throw new TraceDataSourceException(String.format("%s has unsupported trace index version %d",
+						description, header.getInt(4)));
+
+			wordsPerRecord = header.getInt(8);
+			keyWord = header.getInt(12);
+			entryCount = header.getLong(16);
+			if ((wordsPerRecord < 1) || (keyWord < 0) || (keyWord >= wordsPerRecord) || (entryCount < 0L))
+				throw new TraceDataSourceException(String.format(
+						"%s has an invalid layout: %d entries keyed on word %d of %d-word records", description,
+						entryCount, keyWord, wordsPerRecord));
+			if (header.getLong(24) != dataFile.length())
+				throw new TraceDataSourceException(String.format(
+						"%s is stale: it indexes %d bytes, but file:%s has %d bytes", description,
+						header.getLong(24), dataFile.getAbsolutePath(), dataFile.length()));
+
+			// compare in entries, since the table length of a corrupt count can overflow
+			if (entryCount > ((channel.size() - HEADER_SIZE) >> ENTRY_SHIFT))
+				throw new TraceDataSourceException(String.format("%s is truncated: %d entries do not fit in %d bytes",
+						description, entryCount, channel.size()));
+			long tableLength = entryCount << ENTRY_SHIFT;
+
+			// entries never straddle a window, because the window size is a multiple of the entry size
+			windows = new MappedByteBuffer[(int) ((tableLength + WINDOW_MASK) >>> WINDOW_SHIFT)];
+			for (int i = 0; i < windows.length; i++) {
+				long start = ((long) i) << WINDOW_SHIFT;
+				windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + start,
+						Math.min(WINDOW_MASK + 1L, tableLength - start));
+				windows[i].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		} finally {
+			channel.close(); // the mappings stay valid
+		}
+
+		data = new LittleEndianRandomAccessFile(new RandomAccessFile(dataFile, "r"));
+	}
+
+	public long getEntryCount() {
+		return entryCount;
+	}
+
+	public int count(long key) {
+		return (int) (upperBound(key) - lowerBound(key));
+	}
+
+	/**
+	 * Indices of the records whose key word equals <code>key</code>, in ascending order.
+	 */
+	public long[] findRecordIndices(long key) {
+		long first = lowerBound(key);
+		long indices[] = new long[(int) (upperBound(key) - first)];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = getEntryWord(first + i, 1);
+		}
+		return indices;
+	}
+
+	/**
+	 * All words of the records whose key word equals <code>key</code>, in file order.
+	 */
+	public List<long[]> readRecords(long key) throws IOException {
+		long indices[] = findRecordIndices(key);
+		List<long[]> records = new ArrayList<long[]>(indices.length);
+		for (long index : indices) {
+			long record[] = new long[wordsPerRecord];
+			data.readLongs((index * wordsPerRecord) << 3, record, 0, wordsPerRecord);
+			records.add(record);
+		}
+		return records;
+	}
+
+	public void close() throws IOException {
+		data.close();
+	}
+
+	/**
+	 * Writes a sidecar for word <code>keyWord</code> of every record in <code>dataFile</code>. The entries are sorted
+	 * with a <code>TraceRecordSorter</code>, spilling next to <code>indexFile</code>. A trailing partial record is not
+	 * indexed.
+	 */
+	public static void build(File dataFile, int wordsPerRecord, int keyWord, File indexFile) throws IOException {
+		if ((keyWord < 0) || (keyWord >= wordsPerRecord))
+			throw new IllegalArgumentException(String.format("Key word %d is out of range for %d-word records",
+					keyWord, wordsPerRecord));
+
+		File tempDirectory = indexFile.getAbsoluteFile().getParentFile();
+		File entries = File.createTempFile("trace-index", ".entries", tempDirectory);
+		File sorted = File.createTempFile("trace-index", ".sorted", tempDirectory);
+		entries.deleteOnExit();
+		sorted.deleteOnExit();
+		try {
+			long dataLength = dataFile.length();
+			TraceRecordReader input = new TraceRecordReader(dataFile, wordsPerRecord);
+			LittleEndianOutputStream output = new LittleEndianOutputStream(entries, 1 << 16);
+			try {
+				while (input.hasNext()) {
+					TraceRecordReader.Record record = input.next();
+					output.writeLong(record.getWord(keyWord));
+					output.writeLong(record.getIndex());
+				}
+			} finally {
+				input.close();
+				output.close();
+			}
+
+			// sorting on both words keeps the records of each key in file order
+			new TraceRecordSorter(2, 2, BUILD_MEMORY_BUDGET, tempDirectory).sort(entries, sorted);
+			entries.delete();
+
+			writeIndex(sorted, wordsPerRecord, keyWord, dataLength, indexFile);
+		} finally {
+			entries.delete();
+			sorted.delete();
+		}
+	}
+
+	private static void writeIndex(File sorted, int wordsPerRecord, int keyWord, long dataLength, File indexFile)
+			throws IOException {
+		FileChannel table = new FileInputStream(sorted).getChannel();
+		RandomAccessFile output = new RandomAccessFile(indexFile, "rw");
+		try {
+			FileChannel outputChannel = output.getChannel();
+			outputChannel.truncate(0L);
+			long tableLength = table.size();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(wordsPerRecord).putInt(keyWord)
+					.putLong(tableLength >> ENTRY_SHIFT).putLong(dataLength).flip();
+			while (header.hasRemaining()) {
+				outputChannel.write(header, header.position());
+			}
+
+			long copied = 0L;
+			while (copied < tableLength) {
+				copied += outputChannel.transferFrom(table, HEADER_SIZE + copied, tableLength - copied);
+			}
+		} finally {
+			table.close();
+			output.close();
+		}
+	}
+
+	/**
+	 * First entry whose key is not less than <code>key</code>, as unsigned values.
+	 */
+	private long lowerBound(long key) {
+		long low = 0L, high = entryCount;
+		long target = key ^ Long.MIN_VALUE;
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			if ((getEntryWord(middle, 0) ^ Long.MIN_VALUE) < target)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * First entry whose key is greater than <code>key</code>, as unsigned values.
+	 */
+	private long upperBound(long key) {
+		long low = 0L, high = entryCount;
+		long target = key ^ Long.MIN_VALUE;
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			if ((getEntryWord(middle, 0) ^ Long.MIN_VALUE) <= target)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	private long getEntryWord(long entry, int word) {
+		long position = (entry << ENTRY_SHIFT) + (word << 3);
+		return windows[(int) (position >>> WINDOW_SHIFT)].getLong((int) (position & WINDOW_MASK));
+	}
+}
@@ -0,0 +1,168 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a trace file of fixed-width records, each consisting of <code>wordsPerRecord</code> little-endian 64-bit
+ * words (2 for the graph-edge and graph-node files, 3 for the cross-module files). Records are served from a reusable
+ * buffer through a single flyweight <code>Record</code>, which is only valid until the next call to
+ * <code>next()</code>. A trailing partial record is ignored.
+ */
+public class TraceRecordReader {
+
+	public static class Record {
+		public final int wordCount;
+
+		private ByteBuffer data;
+		private int offset;
+		private long index;
+
+		Record(int wordCount) {
+			this.wordCount = wordCount;
+		}
+
+		public long getWord(int wordIndex) {
+			return data.getLong(offset + (wordIndex << 3));
+		}
+
+		public void getWords(long dst[], int off) {
+			for (int i = 0; i < wordCount; i++) {
+				dst[off + i] = data.getLong(offset + (i << 3));
+			}
+		}
+
+		public long getIndex() {
+			return index;
+		}
+	}
+
+	private static final int DEFAULT_BATCH_SIZE = 1 << 16;
+
+	public final String description;
+	public final int wordsPerRecord;
+
+	private final FileChannel channel;
+	private final boolean ownsChannel;
+	private final int recordSize;
+	private final long firstRecord;
+	private final long endRecord;
+
+	private final ByteBuffer buffer;
+	private final Record record;
+	private long bufferStartIndex = 0L;
+	private int bufferRecordCount = 0;
+	private long recordIndex;
+
+	public TraceRecordReader(File file, int wordsPerRecord) throws IOException {
+		this(file, wordsPerRecord, DEFAULT_BATCH_SIZE);
+	}
+
+	public TraceRecordReader(File file, int wordsPerRecord, int bufferSize) throws IOException {
+		this(new FileInputStream(file).getChannel(), true, "file:" + file.getAbsolutePath(), wordsPerRecord, 0L, -1L,
+				bufferSize);
+	}
+
+	/**
+	 * Reads records [firstRecord, endRecord) of a channel that may be shared with other readers, since only positional
+	 * reads are used. A negative <code>endRecord</code> reads to the end of the channel.
+	 */
+	TraceRecordReader(FileChannel channel, boolean ownsChannel, String description, int wordsPerRecord,
+			long firstRecord, long endRecord, int bufferSize) throws IOException {
+		if (wordsPerRecord < 1)
+			throw new IllegalArgumentException("Records must have at least one word");
+
+		this.description = description;
+		this.wordsPerRecord = wordsPerRecord;
+		this.recordSize = wordsPerRecord << 3;
+		this.channel = channel;
+		this.ownsChannel = ownsChannel;
+		this.firstRecord = firstRecord;
+		this.endRecord = (endRecord < 0L) ? (channel.size() / recordSize) : endRecord;
+		this.recordIndex = firstRecord;
+
+		int batchRecords = (int) Math.max(1L, Math.min(bufferSize / recordSize, this.endRecord - firstRecord));
+		buffer = ByteBuffer.allocateDirect(batchRecords * recordSize).order(ByteOrder.LITTLE_ENDIAN);
+		record = new Record(wordsPerRecord);
+		record.data = buffer;
+	}
+
+	public long getRecordCount() {
+		return endRecord - firstRecord;
+	}
+
+	public long getFirstRecordIndex() {
+		return firstRecord;
+	}
+
+	/**
+	 * Index of the record that the next call to <code>next()</code> will return.
+	 */
+	public long getRecordIndex() {
+		return recordIndex;
+	}
+
+	public boolean hasNext() {
+		return recordIndex < endRecord;
+	}
+
+	public Record next() throws IOException {
+		if (recordIndex >= endRecord)
+			throw new IllegalStateException(String.format("No more records in %s (%d records)", description,
+					endRecord));
+
+		if ((recordIndex < bufferStartIndex) || (recordIndex >= (bufferStartIndex + bufferRecordCount)))
+			load(recordIndex);
+
+		record.offset = ((int) (recordIndex - bufferStartIndex)) * recordSize;
+		record.index = recordIndex;
+		recordIndex++;
+		return record;
+	}
+
+	/**
+	 * Seeks to <code>index</code>. Seeking within the currently buffered batch does not touch the file.
+	 */
+	public void seek(long index) {
+		if ((index < firstRecord) || (index > endRecord))
+			throw new IllegalArgumentException(String.format("Record index %d is out of range [%d, %d] for %s", index,
+					firstRecord, endRecord, description));
+
+		recordIndex = index;
+	}
+
+	/**
+	 * Skips up to <code>count</code> records, stopping at the end of the file. Returns the number of records skipped.
+	 */
+	public long skip(long count) {
+		long skipped = Math.min(count, endRecord - recordIndex);
+		recordIndex += skipped;
+		return skipped;
+	}
+
+	public void close() throws IOException {
+		if (ownsChannel)
+			channel.close();
+	}
+
+	private void load(long index) throws IOException {
+		long position = index * recordSize;
+		long bytesRemaining = (endRecord - index) * recordSize;
+
+		buffer.clear();
+		if (bytesRemaining < buffer.capacity())
+			buffer.limit((int) bytesRemaining);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new TraceDataSourceException(String.format("%s was truncated while reading record %d",
+						description, index));
+		}
+
+		bufferStartIndex = index;
+		bufferRecordCount = buffer.limit() / recordSize;
+	}
+}
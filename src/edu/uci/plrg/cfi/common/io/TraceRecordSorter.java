@@ -0,0 +1,280 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * External merge sort of a file of fixed-width little-endian records within a fixed memory budget. Records are
+ * ordered by their first <code>keyWords</code> words, compared as unsigned values. Sorted runs that fill the budget
+ * are spilled to temporary files and then merged with a k-way heap merge, in several passes if there are more runs
+ * than the budget allows to merge at once. Records with equal keys keep no particular order.
+ */
+public class TraceRecordSorter {
+
+	private static final long DEFAULT_MEMORY_BUDGET = 256L << 20;
+	private static final int MINIMUM_MERGE_BUFFER_SIZE = 1 << 16;
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	public final int wordsPerRecord;
+	public final int keyWords;
+
+	private final long memoryBudget;
+	private final File tempDirectory;
+
+	private int runCount = 0;
+	private int mergePassCount = 0;
+
+	public TraceRecordSorter(int wordsPerRecord) {
+		this(wordsPerRecord, wordsPerRecord, DEFAULT_MEMORY_BUDGET, null);
+	}
+
+	/**
+	 * @param tempDirectory
+	 *            where runs are spilled, or null for the system default
+	 */
+	public TraceRecordSorter(int wordsPerRecord, int keyWords, long memoryBudget, File tempDirectory) {
+		if ((keyWords < 1) || (keyWords > wordsPerRecord))
+			throw new IllegalArgumentException(String.format("Cannot sort %d-word records by %d key words",
+					wordsPerRecord, keyWords));
+		if (memoryBudget < (2L * MINIMUM_MERGE_BUFFER_SIZE))
+			throw new IllegalArgumentException(String.format("Memory budget of %d bytes is too small", memoryBudget));
+
+		this.wordsPerRecord = wordsPerRecord;
+		this.keyWords = keyWords;
+		this.memoryBudget = memoryBudget;
+		this.tempDirectory = tempDirectory;
+	}
+
+	public void sort(File input, File output) throws IOException {
+		runCount = 0;
+		mergePassCount = 0;
+
+		List<File> runs = new ArrayList<File>();
+		try {
+			if (createRuns(input, output, runs))
+				return; // the input fit in a single run, which went straight to the output
+
+			int fanIn = (int) Math.max(2L, (memoryBudget / MINIMUM_MERGE_BUFFER_SIZE) - 1);
+			while (runs.size() > fanIn) {
+				List<File> merged = new ArrayList<File>();
+				for (int i = 0; i < runs.size(); i += fanIn) {
+					List<File> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+					File run = createRunFile();
+					merged.add(run);
+					merge(group, run);
+					deleteAll(group);
+				}
+				runs = merged;
+				mergePassCount++;
+			}
+			merge(runs, output);
+			mergePassCount++;
+		} finally {
+			deleteAll(runs);
+		}
+	}
+
+	public int getRunCount() {
+		return runCount;
+	}
+
+	public int getMergePassCount() {
+		return mergePassCount;
+	}
+
+	/**
+	 * Returns true if the whole input was sorted in memory and written to <code>output</code>.
+	 */
+	private boolean createRuns(File input, File output, List<File> runs) throws IOException {
+		TraceRecordReader reader = new TraceRecordReader(input, wordsPerRecord);
+		try {
+			long budgetRecords = (memoryBudget >> 3) / wordsPerRecord;
+			int runRecords = (int) Math.max(1L, Math.min(Math.min(budgetRecords, reader.getRecordCount()),
+					Integer.MAX_VALUE / wordsPerRecord));
+			long words[] = new long[runRecords * wordsPerRecord];
+
+			while (reader.hasNext()) {
+				int recordCount = 0;
+				while ((recordCount < runRecords) && reader.hasNext()) {
+					reader.next().getWords(words, recordCount * wordsPerRecord);
+					recordCount++;
+				}
+				sortRecords(words, 0, recordCount);
+				runCount++;
+
+				boolean onlyRun = runs.isEmpty() && !reader.hasNext();
+				File run = onlyRun ? output : createRunFile();
+				if (!onlyRun)
+					runs.add(run);
+
+				LittleEndianOutputStream out = new LittleEndianOutputStream(run, 1 << 16);
+				out.writeLongs(words, 0, recordCount * wordsPerRecord);
+				out.close();
+				if (onlyRun)
+					return true;
+			}
+		} finally {
+			reader.close();
+		}
+
+		if (runs.isEmpty()) { // empty input
+			new LittleEndianOutputStream(output).close();
+			return true;
+		}
+		return false;
+	}
+
+	private void merge(List<File> runFiles, File output) throws IOException {
+		int bufferSize = (int) Math.max(MINIMUM_MERGE_BUFFER_SIZE,
+				Math.min(1 << 24, memoryBudget / (runFiles.size() + 1)));
+		TraceRecordReader runs[] = new TraceRecordReader[runFiles.size()];
+		TraceRecordReader.Record heads[] = new TraceRecordReader.Record[runs.length];
+		int heap[] = new int[runs.length];
+		int heapSize = 0;
+		LittleEndianOutputStream out = null;
+		try {
+			for (int i = 0; i < runs.length; i++) {
+				runs[i] = new TraceRecordReader(runFiles.get(i), wordsPerRecord, bufferSize);
+				if (runs[i].hasNext()) {
+					heads[i] = runs[i].next();
+					heap[heapSize++] = i;
+				}
+			}
+			for (int i = (heapSize >> 1) - 1; i >= 0; i--) {
+				siftDown(heap, heapSize, i, heads);
+			}
+
+			out = new LittleEndianOutputStream(output, bufferSize);
+			while (heapSize > 0) {
+				int run = heap[0];
+				TraceRecordReader.Record head = heads[run];
+				for (int w = 0; w < wordsPerRecord; w++) {
+					out.writeLong(head.getWord(w));
+				}
+
+				if (runs[run].hasNext()) {
+					heads[run] = runs[run].next();
+				} else {
+					heap[0] = heap[--heapSize];
+				}
+				siftDown(heap, heapSize, 0, heads);
+			}
+		} finally {
+			if (out != null)
+				out.close();
+			for (TraceRecordReader run : runs) {
+				if (run != null)
+					run.close();
+			}
+		}
+	}
+
+	private void siftDown(int heap[], int heapSize, int index, TraceRecordReader.Record heads[]) {
+		int run = heap[index];
+		while (true) {
+			int child = (index << 1) + 1;
+			if (child >= heapSize)
+				break;
+			if (((child + 1) < heapSize) && (compare(heads[heap[child + 1]], heads[heap[child]]) < 0))
+				child++;
+			if (compare(heads[heap[child]], heads[run]) >= 0)
+				break;
+			heap[index] = heap[child];
+			index = child;
+		}
+		heap[index] = run;
+	}
+
+	private int compare(TraceRecordReader.Record first, TraceRecordReader.Record second) {
+		for (int w = 0; w < keyWords; w++) {
+			long a = first.getWord(w) ^ Long.MIN_VALUE;
+			long b = second.getWord(w) ^ Long.MIN_VALUE;
+			if (a != b)
+				return (a < b) ? -1 : 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * In-place three-way quicksort of records [from, to) of <code>words</code>. Three-way partitioning keeps runs of
+	 * duplicate records, which are common in trace data, from degrading the sort.
+	 */
+	private void sortRecords(long words[], int from, int to) {
+		while ((to - from) > INSERTION_SORT_THRESHOLD) {
+			int middle = (from + to) >>> 1;
+			int pivot = medianOfThree(words, from, middle, to - 1);
+			swap(words, from, pivot);
+
+			int lessEnd = from, scan = from + 1, greaterStart = to;
+			while (scan < greaterStart) {
+				int order = compare(words, scan, lessEnd);
+				if (order < 0)
+					swap(words, lessEnd++, scan++);
+				else if (order > 0)
+					swap(words, scan, --greaterStart);
+				else
+					scan++;
+			}
+
+			// recurse into the smaller side to bound the stack depth
+			if ((lessEnd - from) < (to - greaterStart)) {
+				sortRecords(words, from, lessEnd);
+				from = greaterStart;
+			} else {
+				sortRecords(words, greaterStart, to);
+				to = lessEnd;
+			}
+		}
+
+		for (int i = from + 1; i < to; i++) {
+			for (int j = i; (j > from) && (compare(words, j, j - 1) < 0); j--) {
+				swap(words, j, j - 1);
+			}
+		}
+	}
+
+	private int medianOfThree(long words[], int a, int b, int c) {
+		if (compare(words, a, b) < 0) {
+			if (compare(words, b, c) < 0)
+				return b;
+			return (compare(words, a, c) < 0) ? c : a;
+		}
+		if (compare(words, a, c) < 0)
+			return a;
+		return (compare(words, b, c) < 0) ? c : b;
+	}
+
+	private int compare(long words[], int first, int second) {
+		int a = first * wordsPerRecord, b = second * wordsPerRecord;
+		for (int w = 0; w < keyWords; w++) {
+			long x = words[a + w] ^ Long.MIN_VALUE;
+			long y = words[b + w] ^ Long.MIN_VALUE;
+			if (x != y)
+				return (x < y) ? -1 : 1;
+		}
+		return 0;
+	}
+
+	private void swap(long words[], int first, int second) {
+		int a = first * wordsPerRecord, b = second * wordsPerRecord;
+		for (int w = 0; w < wordsPerRecord; w++) {
+			long word = words[a + w];
+			words[a + w] = words[b + w];
+			words[b + w] = word;
+		}
+	}
+
+	private File createRunFile() throws IOException {
+		File run = File.createTempFile("trace-sort", ".run", tempDirectory);
+		run.deleteOnExit();
+		return run;
+	}
+
+	private static void deleteAll(List<File> files) {
+		for (File file : files) {
+			file.delete();
+		}
+	}
+}
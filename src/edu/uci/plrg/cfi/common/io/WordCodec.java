@@ -0,0 +1,237 @@
+package edu.uci.plrg.cfi.common.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Byte order and width of the words in a trace, so that traces of 32-bit and 64-bit targets of either byte order are
+ * read and written by the same code. 32-bit words are zero-extended to <code>long</code> when read and truncated when
+ * written. Each format has its own final implementation, so a call site that always sees the same codec decodes
+ * without branching on the format. The <code>LittleEndian*</code> streams and <code>LittleEndianRandomAccessFile</code>
+ * are bound to one codec when they are created.
+ * <p>
+ * All buffers passed to a codec must be in little-endian order, as are the buffers of the
+ * <code>LittleEndian*</code> streams.
+ */
+public abstract class WordCodec {
+
+	public static final WordCodec LITTLE_ENDIAN_32 = new LittleEndian32();
+	public static final WordCodec LITTLE_ENDIAN_64 = new LittleEndian64();
+	public static final WordCodec BIG_ENDIAN_32 = new BigEndian32();
+	public static final WordCodec BIG_ENDIAN_64 = new BigEndian64();
+
+	private static final long WORD_32_MASK = 0xffffffffL;
+
+	public final ByteOrder byteOrder;
+	public final int wordSize;
+
+	private WordCodec(ByteOrder byteOrder, int wordSize) {
+		this.byteOrder = byteOrder;
+		this.wordSize = wordSize;
+	}
+
+	public static WordCodec forFormat(ByteOrder byteOrder, int wordSize) {
+		if (wordSize == 4)
+			return (byteOrder == ByteOrder.LITTLE_ENDIAN) ? LITTLE_ENDIAN_32 : BIG_ENDIAN_32;
+		if (wordSize == 8)
+			return (byteOrder == ByteOrder.LITTLE_ENDIAN) ? LITTLE_ENDIAN_64 : BIG_ENDIAN_64;
+		throw new IllegalArgumentException(String.format("Unsupported word size %d (must be 4 or 8)", wordSize));
+	}
+
+	/**
+	 * Word of <code>wordSize</code> bytes at absolute <code>index</code> of <code>buffer</code>.
+	 */
+	public abstract long getWord(ByteBuffer buffer, int index);
+
+	public abstract void putWord(ByteBuffer buffer, int index, long word);
+
+	/**
+	 * Word whose <code>wordSize</code> bytes were read as a little-endian value into the low bytes of
+	 * <code>bits</code>.
+	 */
+	public abstract long decode(long bits);
+
+	/**
+	 * Inverse of <code>decode()</code>: the value whose low <code>wordSize</code> bytes, written little-endian, encode
+	 * <code>word</code>.
+	 */
+	public abstract long encode(long word);
+
+	@Override
+	public String toString() {
+		return String.format("%s %d-bit", byteOrder, wordSize << 3);
+	}
+
+	private static final class LittleEndian32 extends WordCodec {
+		LittleEndian32() {
+			super(ByteOrder.LITTLE_ENDIAN, 4);
+		}
+
+		@Override
+		public long getWord(ByteBuffer buffer, int index) {
+			return buffer.getInt(index) & WORD_32_MASK;
+		}
+
+		@Override
+		public void putWord(ByteBuffer buffer, int index, long word) {
+			buffer.putInt(index, (int) word);
+		}
+
+		@Override
+		public long decode(long bits) {
+			return bits & WORD_32_MASK;
+		}
+
+		@Override
+		public long encode(long word) {
+			return word & WORD_32_MASK;
+		}
+	}
+
+	private static final class LittleEndian64 extends WordCodec {
+		LittleEndian64() {
+			super(ByteOrder.LITTLE_ENDIAN, 8);
+		}
+
+		@Override
+		public long getWord(ByteBuffer buffer, int index) {
+			return buffer.getLong(index);
+		}
+
+		@Override
+		public void putWord(ByteBuffer buffer, int index, long word) {
+			buffer.putLong(index, word);
+		}
+
+		@Override
+		public long decode(long bits) {
+			return bits;
+		}
+
+		@Override
+		public long encode(long word) {
+			return word;
+		}
+	}
+
+	private static final class BigEndian32 extends WordCodec {
+		BigEndian32() {
+			super(ByteOrder.BIG_ENDIAN, 4);
+		}
+
+		@Override
+		public long getWord(ByteBuffer buffer, int index) {
+			return Integer.reverseBytes(buffer.getInt(index)) & WORD_32_MASK;
+		}
+
+		@Override
+		public void putWord(ByteBuffer buffer, int index, long word) {
+			buffer.putInt(index, Integer.reverseBytes((int) word));
+		}
+
+		@Override
+		public long decode(long bits) {
+			return Integer.reverseBytes((int) bits) & WORD_32_MASK;
+		}
+
+		@Override
+		public long encode(long word) {
+			return Integer.reverseBytes((int) word) & WORD_32_MASK;
+		}
+	}
+
+	private static final class BigEndian64 extends WordCodec {
+		BigEndian64() {
+			super(ByteOrder.BIG_ENDIAN, 8);
+		}
+
+		@Override
+		public long getWord(ByteBuffer buffer, int index) {
+			return Long.reverseBytes(buffer.getLong(index));
+		}
+
+		@Override
+		public void putWord(ByteBuffer buffer, int index, long word) {
+			buffer.putLong(index, Long.reverseBytes(word));
+		}
+
+		@Override
+		public long decode(long bits) {
+			return Long.reverseBytes(bits);
+		}
+
+		@Override
+		public long encode(long word) {
+			return Long.reverseBytes(word);
+		}
+	}
+
+	// unit test
+	public static void main(String[] args) {
+		try {
+			WordCodec codecs[] = { LITTLE_ENDIAN_32, LITTLE_ENDIAN_64, BIG_ENDIAN_32, BIG_ENDIAN_64 };
+			long words[] = new long[20000];
+			for (int i = 0; i < words.length; i++) {
+				words[i] = 0x0123456789abcdefL * (i + 1);
+			}
+
+			for (WordCodec codec : codecs) {
+				long mask = (codec.wordSize == 4) ? WORD_32_MASK : -1L;
+
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				LittleEndianOutputStream output = new LittleEndianOutputStream(buffer, "byte buffer",
+						LittleEndianOutputStream.DEFAULT_BUFFER_SIZE, codec);
+				output.writeWord(words[0]);
+				output.writeWords(words, 1, words.length - 1);
+				output.close();
+
+				byte bytes[] = buffer.toByteArray();
+				ByteBuffer expected = ByteBuffer.wrap(bytes).order(codec.byteOrder);
+				long bits = (codec.wordSize == 4) ? (expected.getInt(0) & WORD_32_MASK) : expected.getLong(0);
+				if ((bytes.length != (words.length * codec.wordSize)) || (bits != (words[0] & mask)))
+					System.out.println("Error: " + codec + " wrote the wrong bytes");
+
+				LittleEndianInputStream input = new LittleEndianInputStream(new ByteArrayInputStream(bytes),
+						"byte buffer", 16, codec);
+				long read[] = new long[words.length];
+				read[0] = input.readWord();
+				input.readWords(read, 1, read.length - 1);
+				for (int i = 0; i < words.length; i++) {
+					if (read[i] != (words[i] & mask)) {
+						System.out.println(String.format("Error: %s stream read %x for %x", codec, read[i],
+								words[i] & mask));
+						break;
+					}
+				}
+
+				// odd offsets make some words straddle the random-access file's pages
+				File file = File.createTempFile("word-codec", ".dat");
+				file.deleteOnExit();
+				LittleEndianRandomAccessFile randomAccess = new LittleEndianRandomAccessFile(new RandomAccessFile(
+						file, "rw"), 2, LittleEndianRandomAccessFile.WriteMode.WRITE_THROUGH, codec);
+				for (int i = 0; i < words.length; i++) {
+					randomAccess.writeWord(3 + ((long) i * codec.wordSize), words[i]);
+				}
+				for (int i = words.length - 1; i >= 0; i--) {
+					long word = randomAccess.readWord(3 + ((long) i * codec.wordSize));
+					if (word != (words[i] & mask)) {
+						System.out.println(String.format("Error: %s random access read %x for %x", codec, word,
+								words[i] & mask));
+						break;
+					}
+				}
+				randomAccess.close();
+				file.delete();
+
+				System.out.println("Round-tripped " + words.length + " " + codec + " words");
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package edu.uci.plrg.cfi.common.log;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writer thread behind <code>Log</code>'s asynchronous mode. Logging threads publish events into a bounded ring
+ * without locking: a producer claims a sequence number with a CAS on the tail and publishes its slot by advancing the
+ * slot's sequence. The single writer thread consumes the events in order, formats them into their outputs, and
+ * flushes the outputs it has written to once <code>FLUSH_BATCH_SIZE</code> events are unflushed or
+ * <code>FLUSH_INTERVAL_NANOS</code> have passed. When the ring is full, producers wait for the writer rather than drop
+ * events. A failure to write an event is rethrown as a <code>Log.OutputException</code> by the next
+ * <code>log()</code> or <code>flush()</code>, as the synchronous mode would have thrown it from the call itself.
+ * <p>
+ * Events keep a reference to the output list they were logged with, so a list passed to <code>log()</code> must never
+ * be modified afterwards; <code>Log</code> only passes its immutable snapshots.
+ */
+class AsyncLogWriter {
+
+	static final int DEFAULT_CAPACITY = 1 << 14;
+
+	private static final int FLUSH_BATCH_SIZE = 1 << 10;
+	private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+	private static final int SPIN_LIMIT = 1 << 6;
+
+	private static class Event {
+		List<PrintWriter> outputs;
+		String format;
+		Object args[];
+		Throwable throwable;
+		CountDownLatch flushed; // set only on flush markers
+	}
+
+	private final Event events[];
+	private final AtomicLongArray sequences; // slot i is writable at sequence s when it holds s, readable when s + 1
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+
+	private final Thread writer;
+	private volatile boolean parked = false;
+	private volatile boolean running = true;
+	private volatile Throwable failure = null; // the first write failure not yet reported to a logging thread
+
+	// writer thread only
+	private long head = 0L;
+	private final Set<PrintWriter> unflushed = Collections.newSetFromMap(new IdentityHashMap<PrintWriter, Boolean>());
+	private int unflushedCount = 0;
+	private long lastFlush = System.nanoTime();
+
+	AsyncLogWriter(int capacity) {
+		if (Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException(String.format("Log ring capacity %d is not a power of 2", capacity));
+
+		events = new Event[capacity];
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			events[i] = new Event();
+			sequences.set(i, i);
+		}
+		mask = capacity - 1;
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeEvents();
+			}
+		}, "Log writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * @param outputs
+	 *            an immutable list, which is read by the writer thread after this call returns
+	 */
+	void log(List<PrintWriter> outputs, String format, Object args[]) {
+		reportFailure();
+		publish(outputs, format, args, null, null);
+	}
+
+	void log(List<PrintWriter> outputs, Throwable throwable) {
+		reportFailure();
+		publish(outputs, null, null, throwable, null);
+	}
+
+	/**
+	 * Waits until every event published before this call has been written and its outputs flushed.
+	 */
+	void flush() {
+		if (Thread.currentThread() == writer) { // e.g., a toString() that logs
+			flushOutputs();
+			return;
+		}
+		if (!writer.isAlive()) { // the writer died, or the JVM is going down: finish on this thread
+			synchronized (this) {
+				drain();
+				flushOutputs();
+			}
+			reportFailure();
+			return;
+		}
+
+		CountDownLatch flushed = new CountDownLatch(1);
+		publish(null, null, null, null, flushed);
+		boolean interrupted = false;
+		while (true) {
+			try {
+				flushed.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		reportFailure();
+	}
+
+	/**
+	 * Writes all pending events and stops the writer thread.
+	 */
+	void shutdown() {
+		try {
+			flush();
+		} finally {
+			running = false;
+			LockSupport.unpark(writer);
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void publish(List<PrintWriter> outputs, String format, Object args[], Throwable throwable,
+			CountDownLatch flushed) {
+		long sequence;
+		int spins = 0;
+		while (true) {
+			sequence = tail.get();
+			long available = sequences.get((int) sequence & mask);
+			if (available == sequence) {
+				if (tail.compareAndSet(sequence, sequence + 1))
+					break;
+			} else if (available < sequence) { // full: the writer has not yet consumed this slot's previous event
+				LockSupport.unpark(writer);
+				if (++spins < SPIN_LIMIT)
+					Thread.yield();
+				else
+					LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50L));
+			}
+		}
+
+		int index = (int) sequence & mask;
+		Event event = events[index];
+		event.outputs = outputs;
+		event.format = format;
+		event.args = args;
+		event.throwable = throwable;
+		event.flushed = flushed;
+		sequences.set(index, sequence + 1);
+
+		if (parked)
+			LockSupport.unpark(writer);
+	}
+
+	private void writeEvents() {
+		while (true) {
+			if (drain() > 0)
+				continue;
+
+			if ((unflushedCount > 0) && ((System.nanoTime() - lastFlush) >= FLUSH_INTERVAL_NANOS))
+				flushOutputs();
+			if (!running)
+				break;
+
+			parked = true;
+			if (sequences.get((int) head & mask) != (head + 1)) // recheck after announcing the park
+				LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+			parked = false;
+		}
+		drain();
+		flushOutputs();
+	}
+
+	/**
+	 * Writes the events that are ready and returns how many there were.
+	 */
+	private int drain() {
+		int count = 0;
+		while (true) {
+			int index = (int) head & mask;
+			if (sequences.get(index) != (head + 1))
+				return count;
+
+			Event event = events[index];
+			CountDownLatch flushed = event.flushed;
+			if (flushed == null)
+				write(event);
+			event.outputs = null;
+			event.format = null;
+			event.args = null;
+			event.throwable = null;
+			event.flushed = null;
+			sequences.lazySet(index, head + events.length);
+			head++;
+			count++;
+
+			if (flushed != null) {
+				flushOutputs();
+				flushed.countDown();
+			} else if ((unflushedCount >= FLUSH_BATCH_SIZE)
+					|| ((System.nanoTime() - lastFlush) >= FLUSH_INTERVAL_NANOS)) {
+				flushOutputs();
+			}
+		}
+	}
+
+	private void write(Event event) {
+		try {
+			for (PrintWriter output : event.outputs) {
+				if (event.throwable == null) {
+					output.format(event.format, event.args);
+					output.println();
+				} else {
+					event.throwable.printStackTrace(output);
+				}
+				unflushed.add(output);
+			}
+		} catch (Throwable t) {
+			if (failure == null)
+				failure = t;
+		}
+		unflushedCount++;
+	}
+
+	private void reportFailure() {
+		Throwable t = failure;
+		if (t != null) {
+			failure = null;
+			throw new Log.OutputException(t);
+		}
+	}
+
+	private void flushOutputs() {
+		for (PrintWriter output : unflushed) {
+			output.flush();
+		}
+		unflushed.clear();
+		unflushedCount = 0;
+		lastFlush = System.nanoTime();
+	}
+}
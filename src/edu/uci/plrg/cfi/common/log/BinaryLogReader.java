@@ -0,0 +1,153 @@
+package edu.uci.plrg.cfi.common.log;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.uci.plrg.cfi.common.io.LittleEndianInputStream;
+import edu.uci.plrg.cfi.common.io.TraceDataSourceException;
+
+/**
+ * Reads the events of a log written by <code>BinaryLogWriter</code>, restoring each event's format string and
+ * arguments so it can be formatted as the original <code>Log</code> call would have been.
+ */
+public class BinaryLogReader {
+
+	public final String description;
+
+	private final LittleEndianInputStream input;
+	private final List<String> templates = new ArrayList<String>();
+
+	private long millis;
+	private String format = null;
+	private Object args[] = null;
+	private boolean truncated = false;
+
+	public BinaryLogReader(File file) throws IOException {
+		description = "file:" + file.getAbsolutePath();
+		input = new LittleEndianInputStream(file, 1 << 16);
+
+		if (!input.ready(16))
+			throw new TraceDataSourceException(description + " is too short to be a binary log");
+		if (input.readInt() != BinaryLogWriter.MAGIC)
+			throw new TraceDataSourceException(description + " is not a binary log");
+		int version = input.readInt();
+		if (version != BinaryLogWriter.VERSION)
+			throw new TraceDataSourceException(String.format("%s has unsupported binary log version %d", description,
+					version));
+		millis = input.readLong();
+	}
+
+	/**
+	 * Advances to the next event, returning false at the end of the log. A log cut off in the middle of a record (e.g.,
+	 * by a crash before the writer flushed) ends cleanly after its last whole event; see <code>isTruncated()</code>.
+	 */
+	public boolean next() throws IOException {
+		try {
+			while (input.ready()) {
+				byte tag = input.readByte();
+				if (tag == BinaryLogWriter.TEMPLATE) {
+					long templateId = input.readVarLong();
+					if (templateId != templates.size())
+						throw new TraceDataSourceException(String.format("%s defines template %d out of order",
+								description, templateId));
+					templates.add(readString());
+				} else if (tag == BinaryLogWriter.EVENT) {
+					readEvent();
+					return true;
+				} else {
+					throw new TraceDataSourceException(String.format("%s has unknown record tag %d", description,
+							tag));
+				}
+			}
+		} catch (EOFException e) {
+			truncated = true;
+		}
+		format = null;
+		args = null;
+		return false;
+	}
+
+	/**
+	 * True if <code>next()</code> reached the end of the log in the middle of a record.
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public Object[] getArgs() {
+		return args;
+	}
+
+	/**
+	 * Wall-clock time of the current event, in milliseconds since the epoch.
+	 */
+	public long getTimeMillis() {
+		return millis;
+	}
+
+	public void close() throws IOException {
+		input.close();
+	}
+
+	private void readEvent() throws IOException {
+		long templateId = input.readVarLong();
+		if ((templateId < 0L) || (templateId >= templates.size()))
+			throw new TraceDataSourceException(String.format("%s refers to undefined template %d", description,
+					templateId));
+		format = templates.get((int) templateId);
+		millis += input.readSignedVarLong();
+
+		args = new Object[input.readByte() & 0xff];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = readArg();
+		}
+	}
+
+	private Object readArg() throws IOException {
+		byte type = input.readByte();
+		switch (type) {
+			case BinaryLogWriter.NULL:
+				return null;
+			case BinaryLogWriter.LONG:
+				return input.readSignedVarLong();
+			case BinaryLogWriter.INT:
+				return (int) input.readSignedVarLong();
+			case BinaryLogWriter.SHORT:
+				return (short) input.readSignedVarLong();
+			case BinaryLogWriter.BYTE:
+				return (byte) input.readSignedVarLong();
+			case BinaryLogWriter.DOUBLE:
+				return Double.longBitsToDouble(input.readLong());
+			case BinaryLogWriter.FLOAT:
+				return (float) Double.longBitsToDouble(input.readLong());
+			case BinaryLogWriter.BOOLEAN:
+				return input.readByte() != 0;
+			case BinaryLogWriter.CHAR:
+				return (char) input.readVarLong();
+			case BinaryLogWriter.STRING:
+				return readString();
+			default:
+				throw new TraceDataSourceException(String.format("%s has unknown argument type %d", description, type));
+		}
+	}
+
+	private String readString() throws IOException {
+		long length = input.readVarLong();
+		if ((length < 0L) || (length > Integer.MAX_VALUE))
+			throw new TraceDataSourceException(String.format("%s has a string of invalid length %d", description,
+					length));
+
+		byte bytes[] = new byte[(int) length];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = input.readByte();
+		}
+		return new String(bytes, BinaryLogWriter.UTF_8);
+	}
+}
@@ -0,0 +1,233 @@
+package edu.uci.plrg.cfi.common.log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IllegalFormatException;
+import java.util.Map;
+
+import edu.uci.plrg.cfi.common.io.LittleEndianOutputStream;
+
+/**
+ * Log sink that records each message as its format string's template id plus the raw arguments, deferring all
+ * formatting to <code>BinaryLogReader</code>. Each format string is written once, the first time it is used. Layout
+ * (all values little-endian; varints as in <code>LittleEndianOutputStream</code>):
+ *
+ * <pre>
+ * header:   int MAGIC, int VERSION, long startMillis
+ * template: byte TEMPLATE, varint templateId, varint length, UTF-8 bytes
+ * event:    byte EVENT, varint templateId, signed varint millis since the previous event, byte argCount, args
+ * arg:      byte type, then a signed varint (integral types), 8 bytes (floating point) or a string
+ * </pre>
+ *
+ * Arguments other than numbers, booleans and characters are stored as their <code>toString()</code>. A message with
+ * more arguments than fit the count byte, or with a null argument array, is formatted on the spot and stored as a
+ * single string. Thread safe.
+ */
+public class BinaryLogWriter {
+
+	static final int MAGIC = 0x4c425343; // "CSBL"
+	static final int VERSION = 1;
+
+	static final byte TEMPLATE = 0;
+	static final byte EVENT = 1;
+
+	static final byte NULL = 0;
+	static final byte LONG = 1;
+	static final byte INT = 2;
+	static final byte SHORT = 3;
+	static final byte BYTE = 4;
+	static final byte DOUBLE = 5;
+	static final byte FLOAT = 6;
+	static final byte BOOLEAN = 7;
+	static final byte CHAR = 8;
+	static final byte STRING = 9;
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int MAXIMUM_ARGS = 0xff;
+
+	public final String description;
+
+	private final LittleEndianOutputStream output;
+	private final Map<String, Integer> templateIds = new HashMap<String, Integer>();
+	private long lastMillis;
+
+	public BinaryLogWriter(File file) throws FileNotFoundException, IOException {
+		this(new LittleEndianOutputStream(file, 1 << 16));
+	}
+
+	public BinaryLogWriter(LittleEndianOutputStream output) throws IOException {
+		this.output = output;
+		this.description = output.description;
+
+		lastMillis = System.currentTimeMillis();
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeLong(lastMillis);
+	}
+
+	public synchronized void log(String format, Object... args) {
+		if ((args == null) || (args.length > MAXIMUM_ARGS)) { // a null array formats as null, like PrintWriter.format()
+			String text;
+			try {
+				text = String.format(format, args);
+			} catch (IllegalFormatException e) {
+				text = format + " " + Arrays.toString(args);
+			}
+			args = new Object[] { text };
+			format = "%s";
+		}
+
+		try {
+			writeEvent(format, args.length);
+			for (Object arg : args) {
+				writeArg(arg);
+			}
+		} catch (IOException e) {
+			throw new Log.OutputException(e);
+		}
+	}
+
+	public void log(String format, int arg) {
+		logPrimitive(format, INT, arg);
+	}
+
+	public void log(String format, int arg1, int arg2) {
+		logPrimitive(format, INT, arg1, INT, arg2);
+	}
+
+	public void log(String format, int arg1, long arg2) {
+		logPrimitive(format, INT, arg1, LONG, arg2);
+	}
+
+	public void log(String format, long arg1, int arg2) {
+		logPrimitive(format, LONG, arg1, INT, arg2);
+	}
+
+	public void log(String format, long arg) {
+		logPrimitive(format, LONG, arg);
+	}
+
+	public void log(String format, long arg1, long arg2) {
+		logPrimitive(format, LONG, arg1, LONG, arg2);
+	}
+
+	/**
+	 * Records an integral or character argument of the given type without boxing it.
+	 */
+	synchronized void logPrimitive(String format, byte type, long arg) {
+		try {
+			writeEvent(format, 1);
+			writePrimitive(type, arg);
+		} catch (IOException e) {
+			throw new Log.OutputException(e);
+		}
+	}
+
+	synchronized void logPrimitive(String format, byte type1, long arg1, byte type2, long arg2) {
+		try {
+			writeEvent(format, 2);
+			writePrimitive(type1, arg1);
+			writePrimitive(type2, arg2);
+		} catch (IOException e) {
+			throw new Log.OutputException(e);
+		}
+	}
+
+	/**
+	 * Records the stack trace of <code>throwable</code> as a single string.
+	 */
+	public void log(Throwable throwable) {
+		StringWriter trace = new StringWriter();
+		PrintWriter writer = new PrintWriter(trace);
+		throwable.printStackTrace(writer);
+		writer.flush();
+
+		String text = trace.toString();
+		if (text.endsWith(System.getProperty("line.separator")))
+			text = text.substring(0, text.length() - System.getProperty("line.separator").length());
+		log("%s", text);
+	}
+
+	public synchronized void flush() {
+		try {
+			output.flush();
+		} catch (IOException e) {
+			throw new Log.OutputException(e);
+		}
+	}
+
+	public synchronized void close() {
+		try {
+			output.close();
+		} catch (IOException e) {
+			throw new Log.OutputException(e);
+		}
+	}
+
+	private void writeEvent(String format, int argCount) throws IOException {
+		Integer templateId = templateIds.get(format);
+		if (templateId == null) {
+			templateId = templateIds.size();
+			templateIds.put(format, templateId);
+			output.writeByte(TEMPLATE);
+			output.writeVarLong(templateId);
+			writeString(format);
+		}
+
+		long millis = System.currentTimeMillis();
+		output.writeByte(EVENT);
+		output.writeVarLong(templateId);
+		output.writeSignedVarLong(millis - lastMillis);
+		output.writeByte((byte) argCount);
+		lastMillis = millis;
+	}
+
+	private void writePrimitive(byte type, long arg) throws IOException {
+		output.writeByte(type);
+		if (type == CHAR)
+			output.writeVarLong(arg);
+		else
+			output.writeSignedVarLong(arg);
+	}
+
+	private void writeArg(Object arg) throws IOException {
+		if (arg == null) {
+			output.writeByte(NULL);
+		} else if (arg instanceof Long) {
+			writePrimitive(LONG, (Long) arg);
+		} else if (arg instanceof Integer) {
+			writePrimitive(INT, (Integer) arg);
+		} else if (arg instanceof Short) {
+			writePrimitive(SHORT, (Short) arg);
+		} else if (arg instanceof Byte) {
+			writePrimitive(BYTE, (Byte) arg);
+		} else if (arg instanceof Double) {
+			output.writeByte(DOUBLE);
+			output.writeLong(Double.doubleToRawLongBits((Double) arg));
+		} else if (arg instanceof Float) {
+			output.writeByte(FLOAT);
+			output.writeLong(Double.doubleToRawLongBits((Float) arg));
+		} else if (arg instanceof Boolean) {
+			output.writeByte(BOOLEAN);
+			output.writeByte((byte) (((Boolean) arg) ? 1 : 0));
+		} else if (arg instanceof Character) {
+			writePrimitive(CHAR, (Character) arg);
+		} else {
+			output.writeByte(STRING);
+			writeString(arg.toString());
+		}
+	}
+
+	private void writeString(String text) throws IOException {
+		byte bytes[] = text.getBytes(UTF_8);
+		output.writeVarLong(bytes.length);
+		output.writeBytes(bytes);
+	}
+}
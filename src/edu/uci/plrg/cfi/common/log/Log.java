@@ -6,12 +6,28 @@ import java.io.FileWriter;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
+/**
+ * Static logging to shared outputs or per-thread outputs. Each level has fixed-arity overloads for one or two
+ * arguments, with primitive variants, so that a call at a disabled level allocates neither a varargs array nor boxed
+ * values; each primitive keeps its declared type, so <code>%x</code> of a negative <code>int</code> prints 8 digits,
+ * not 16. Messages that are expensive to build
+ * can be passed as a <code>Message</code>, which is rendered only if its level is active. A
+ * <code>BinaryLogWriter</code> added as a binary output receives every message unformatted, from any thread, to be
+ * rendered offline by <code>BinaryLogRenderer</code>.
+ */
 public class Log {
 
+	/**
+	 * Message text built on demand. A call site on a hot path should reuse one instance (e.g., from a field), since
+	 * creating it at the call allocates even when the level is disabled.
+	 */
+	public interface Message {
+		String render();
+	}
+
 	public enum Level {
 		ERROR,
 		WARNING,
@@ -30,8 +46,12 @@ public class Log {
 		}
 	}
 
+	/**
+	 * Routing state of one thread, only ever touched by that thread.
+	 */
 	private static class ThreadOutput {
-		final List<PrintWriter> outputs = new ArrayList<PrintWriter>();
+		List<PrintWriter> outputs = Collections.emptyList(); // immutable snapshot
+		boolean shared = false; // this thread added a shared output, so it always logs to the shared outputs
 	}
 
 	private static class ThreadLog extends ThreadLocal<ThreadOutput> {
@@ -41,28 +61,83 @@ public class Log {
 		}
 	}
 
-	private static final List<PrintWriter> sharedOutputs = new ArrayList<PrintWriter>();
-	private static Set<Thread> sharedLogThreads = new HashSet<Thread>();
-	private static ThreadLog threadLog = null;
+	// output lists are immutable snapshots, replaced (never modified) when outputs are added or cleared
+	private static volatile List<PrintWriter> sharedOutputs = Collections.emptyList();
+	private static volatile List<BinaryLogWriter> binaryOutputs = Collections.emptyList();
+	private static final ThreadLog threadLog = new ThreadLog();
+	private static volatile boolean threadOutputsEnabled = false; // set by the first addThreadOutput()
 	private static Level activeLevel = Level.WARNING;
 	private static boolean silent = false;
+	private static int activeOrdinal = activeLevel.ordinal(); // -1 when silent
+	private static volatile AsyncLogWriter asyncWriter = null;
+	private static boolean flushOnShutdown = false;
 
 	public static void setSilent(boolean b) {
 		silent = b;
+		activeOrdinal = silent ? -1 : activeLevel.ordinal();
 	}
 
 	public static void setLevel(Level level) {
 		Log.activeLevel = level;
+		activeOrdinal = silent ? -1 : activeLevel.ordinal();
 	}
 
+	/**
+	 * True if messages at <code>level</code> will be written: the level is enabled and the log is not silent.
+	 */
 	public static boolean isActive(Level level) {
-		return (level.ordinal() <= Log.activeLevel.ordinal());
+		return (level.ordinal() <= activeOrdinal);
 	}
 
-	public static void addOutput(OutputStream output) {
-		sharedLogThreads.add(Thread.currentThread());
+	/**
+	 * In asynchronous mode, logging calls only queue the format and arguments; a writer thread formats them and
+	 * flushes the outputs in batches. Arguments are formatted after the call returns, so they must not be mutated
+	 * afterwards. Switch modes while no other thread is logging.
+	 */
+	public static synchronized void setAsynchronous(boolean asynchronous) {
+		if (asynchronous && (asyncWriter == null)) {
+			asyncWriter = new AsyncLogWriter(AsyncLogWriter.DEFAULT_CAPACITY);
+			registerShutdownFlush();
+		} else if (!asynchronous && (asyncWriter != null)) {
+			AsyncLogWriter writer = asyncWriter;
+			asyncWriter = null;
+			writer.shutdown();
+		}
+	}
+
+	public static boolean isAsynchronous() {
+		return asyncWriter != null;
+	}
+
+	/**
+	 * Writes and flushes everything logged so far. In asynchronous mode this waits for the writer thread to catch up;
+	 * it is also called by a shutdown hook.
+	 */
+	public static void flushAll() {
+		for (BinaryLogWriter output : binaryOutputs) {
+			output.flush();
+		}
+
+		AsyncLogWriter writer = asyncWriter;
+		if (writer != null) {
+			writer.flush();
+			return;
+		}
+
+		try {
+			for (PrintWriter output : sharedOutputs) {
+				output.flush();
+			}
+			for (PrintWriter output : threadLog.get().outputs) {
+				output.flush();
+			}
+		} catch (Throwable t) {
+			throw new OutputException(t);
+		}
+	}
 
-		sharedOutputs.add(new PrintWriter(output));
+	public static void addOutput(OutputStream output) {
+		addSharedOutput(new PrintWriter(output));
 	}
 
 	public static void addOutput(File file) {
@@ -70,32 +145,66 @@ public class Log {
 	}
 
 	public static void addOutput(File file, FileMode mode) {
-		sharedLogThreads.add(Thread.currentThread());
-
+		PrintWriter output;
 		try {
-			sharedOutputs.add(new PrintWriter(new FileWriter(file, mode == FileMode.APPEND)));
+			output = new PrintWriter(new FileWriter(file, mode == FileMode.APPEND));
 		} catch (Throwable t) {
 			throw new OutputException(t);
 		}
+		addSharedOutput(output);
 	}
 
-	public static synchronized void addThreadOutput(File file) throws FileNotFoundException {
-		if (threadLog == null) {
-			threadLog = new ThreadLog();
+	public static void addBinaryOutput(File file) {
+		BinaryLogWriter output;
+		try {
+			output = new BinaryLogWriter(file);
+		} catch (Throwable t) {
+			throw new OutputException(t);
 		}
-		threadLog.get().outputs.add(new PrintWriter(file));
+		addBinaryOutput(output);
+	}
+
+	/**
+	 * Adds a shared output that records messages unformatted. It is buffered, and flushed only by
+	 * <code>flushAll()</code>, <code>closeOutputs()</code> or at shutdown. Thread outputs do not apply to it.
+	 */
+	public static synchronized void addBinaryOutput(BinaryLogWriter output) {
+		List<BinaryLogWriter> appended = new ArrayList<BinaryLogWriter>(binaryOutputs.size() + 1);
+		appended.addAll(binaryOutputs);
+		appended.add(output);
+		binaryOutputs = Collections.unmodifiableList(appended);
+		registerShutdownFlush();
+	}
+
+	/**
+	 * Adds an output for the calling thread only. Once any thread has a thread output, each thread that has not added
+	 * a shared output logs only to its own thread outputs.
+	 */
+	public static void addThreadOutput(File file) throws FileNotFoundException {
+		ThreadOutput thread = threadLog.get();
+		thread.outputs = append(thread.outputs, new PrintWriter(file));
+		threadOutputsEnabled = true;
 
 		// System.out.println(String.format("Adding output to %s on thread %s", file.getName(), Thread.currentThread()
 		// .getName()));
 	}
 
-	public static void clearOutputs() {
-		sharedOutputs.clear();
+	/**
+	 * Removes all shared outputs. Binary outputs are flushed first, since only <code>Log</code> flushes them.
+	 */
+	public static synchronized void clearOutputs() {
+		flushPending();
+		sharedOutputs = Collections.emptyList();
+		List<BinaryLogWriter> cleared = binaryOutputs;
+		binaryOutputs = Collections.emptyList();
+		for (BinaryLogWriter output : cleared) {
+			output.flush();
+		}
 	}
 
 	public static void clearThreadOutputs() {
-		if (threadLog != null)
-			threadLog.get().outputs.clear();
+		flushPending();
+		threadLog.get().outputs = Collections.emptyList();
 
 		// System.out.println(String.format("Clearing thread output on thread %s", Thread.currentThread().getName()));
 	}
@@ -105,27 +214,18 @@ public class Log {
 	}
 
 	public static void log(Object o) {
-		log(o == null ? "null" : o.toString(), "");
+		log("%s", o);
 	}
 
 	public static void log(String format, Object... args) {
 		if (silent)
 			return;
 
-		if (getOutputs().isEmpty()) {
-			warnNoOutputs();
-			return;
-		}
-
-		try {
-			for (PrintWriter output : getOutputs()) {
-				output.format(format, args);
-				output.println();
-				output.flush();
-			}
-		} catch (Throwable t) {
-			throw new OutputException(t);
+		List<BinaryLogWriter> binary = binaryOutputs;
+		for (BinaryLogWriter output : binary) {
+			output.log(format, args);
 		}
+		writeText(getOutputs(), format, args, binary.isEmpty());
 	}
 
 	public static void error(String format, Object... args) {
@@ -149,23 +249,286 @@ public class Log {
 	}
 
 	public static void log(Level level, String format, Object... args) {
-		if (level.ordinal() <= activeLevel.ordinal())
+		if (isActive(level))
 			log(format, args);
 	}
 
+	/*
+	 * The fixed-arity overloads below skip the varargs array, and box their arguments only when the level is active.
+	 * Primitive arguments are passed with their type to logPrimitive(), so each is boxed at its own width: it is
+	 * formatted (and recorded by binary outputs) as its declared type. Two-argument calls widen byte, short and char
+	 * arguments to int.
+	 */
+	public static void error(String format, Object arg) {
+		log(Level.ERROR, format, arg);
+	}
+
+	public static void error(String format, Object arg1, Object arg2) {
+		log(Level.ERROR, format, arg1, arg2);
+	}
+
+	public static void error(String format, int arg) {
+		logPrimitive(Level.ERROR, format, arg, BinaryLogWriter.INT);
+	}
+
+	public static void error(String format, long arg) {
+		logPrimitive(Level.ERROR, format, arg, BinaryLogWriter.LONG);
+	}
+
+	public static void error(String format, byte arg) {
+		logPrimitive(Level.ERROR, format, arg, BinaryLogWriter.BYTE);
+	}
+
+	public static void error(String format, short arg) {
+		logPrimitive(Level.ERROR, format, arg, BinaryLogWriter.SHORT);
+	}
+
+	public static void error(String format, char arg) {
+		logPrimitive(Level.ERROR, format, arg, BinaryLogWriter.CHAR);
+	}
+
+	public static void error(String format, int arg1, int arg2) {
+		logPrimitive(Level.ERROR, format, arg1, BinaryLogWriter.INT, arg2, BinaryLogWriter.INT);
+	}
+
+	public static void error(String format, int arg1, long arg2) {
+		logPrimitive(Level.ERROR, format, arg1, BinaryLogWriter.INT, arg2, BinaryLogWriter.LONG);
+	}
+
+	public static void error(String format, long arg1, int arg2) {
+		logPrimitive(Level.ERROR, format, arg1, BinaryLogWriter.LONG, arg2, BinaryLogWriter.INT);
+	}
+
+	public static void error(String format, long arg1, long arg2) {
+		logPrimitive(Level.ERROR, format, arg1, BinaryLogWriter.LONG, arg2, BinaryLogWriter.LONG);
+	}
+
+	public static void error(Message message) {
+		log(Level.ERROR, message);
+	}
+
+	public static void warn(String format, Object arg) {
+		log(Level.WARNING, format, arg);
+	}
+
+	public static void warn(String format, Object arg1, Object arg2) {
+		log(Level.WARNING, format, arg1, arg2);
+	}
+
+	public static void warn(String format, int arg) {
+		logPrimitive(Level.WARNING, format, arg, BinaryLogWriter.INT);
+	}
+
+	public static void warn(String format, long arg) {
+		logPrimitive(Level.WARNING, format, arg, BinaryLogWriter.LONG);
+	}
+
+	public static void warn(String format, byte arg) {
+		logPrimitive(Level.WARNING, format, arg, BinaryLogWriter.BYTE);
+	}
+
+	public static void warn(String format, short arg) {
+		logPrimitive(Level.WARNING, format, arg, BinaryLogWriter.SHORT);
+	}
+
+	public static void warn(String format, char arg) {
+		logPrimitive(Level.WARNING, format, arg, BinaryLogWriter.CHAR);
+	}
+
+	public static void warn(String format, int arg1, int arg2) {
+		logPrimitive(Level.WARNING, format, arg1, BinaryLogWriter.INT, arg2, BinaryLogWriter.INT);
+	}
+
+	public static void warn(String format, int arg1, long arg2) {
+		logPrimitive(Level.WARNING, format, arg1, BinaryLogWriter.INT, arg2, BinaryLogWriter.LONG);
+	}
+
+	public static void warn(String format, long arg1, int arg2) {
+		logPrimitive(Level.WARNING, format, arg1, BinaryLogWriter.LONG, arg2, BinaryLogWriter.INT);
+	}
+
+	public static void warn(String format, long arg1, long arg2) {
+		logPrimitive(Level.WARNING, format, arg1, BinaryLogWriter.LONG, arg2, BinaryLogWriter.LONG);
+	}
+
+	public static void warn(Message message) {
+		log(Level.WARNING, message);
+	}
+
+	public static void message(String format, Object arg) {
+		log(Level.MESSAGE, format, arg);
+	}
+
+	public static void message(String format, Object arg1, Object arg2) {
+		log(Level.MESSAGE, format, arg1, arg2);
+	}
+
+	public static void message(String format, int arg) {
+		logPrimitive(Level.MESSAGE, format, arg, BinaryLogWriter.INT);
+	}
+
+	public static void message(String format, long arg) {
+		logPrimitive(Level.MESSAGE, format, arg, BinaryLogWriter.LONG);
+	}
+
+	public static void message(String format, byte arg) {
+		logPrimitive(Level.MESSAGE, format, arg, BinaryLogWriter.BYTE);
+	}
+
+	public static void message(String format, short arg) {
+		logPrimitive(Level.MESSAGE, format, arg, BinaryLogWriter.SHORT);
+	}
+
+	public static void message(String format, char arg) {
+		logPrimitive(Level.MESSAGE, format, arg, BinaryLogWriter.CHAR);
+	}
+
+	public static void message(String format, int arg1, int arg2) {
+		logPrimitive(Level.MESSAGE, format, arg1, BinaryLogWriter.INT, arg2, BinaryLogWriter.INT);
+	}
+
+	public static void message(String format, int arg1, long arg2) {
+		logPrimitive(Level.MESSAGE, format, arg1, BinaryLogWriter.INT, arg2, BinaryLogWriter.LONG);
+	}
+
+	public static void message(String format, long arg1, int arg2) {
+		logPrimitive(Level.MESSAGE, format, arg1, BinaryLogWriter.LONG, arg2, BinaryLogWriter.INT);
+	}
+
+	public static void message(String format, long arg1, long arg2) {
+		logPrimitive(Level.MESSAGE, format, arg1, BinaryLogWriter.LONG, arg2, BinaryLogWriter.LONG);
+	}
+
+	public static void message(Message message) {
+		log(Level.MESSAGE, message);
+	}
+
+	public static void detail(String format, Object arg) {
+		log(Level.DETAIL, format, arg);
+	}
+
+	public static void detail(String format, Object arg1, Object arg2) {
+		log(Level.DETAIL, format, arg1, arg2);
+	}
+
+	public static void detail(String format, int arg) {
+		logPrimitive(Level.DETAIL, format, arg, BinaryLogWriter.INT);
+	}
+
+	public static void detail(String format, long arg) {
+		logPrimitive(Level.DETAIL, format, arg, BinaryLogWriter.LONG);
+	}
+
+	public static void detail(String format, byte arg) {
+		logPrimitive(Level.DETAIL, format, arg, BinaryLogWriter.BYTE);
+	}
+
+	public static void detail(String format, short arg) {
+		logPrimitive(Level.DETAIL, format, arg, BinaryLogWriter.SHORT);
+	}
+
+	public static void detail(String format, char arg) {
+		logPrimitive(Level.DETAIL, format, arg, BinaryLogWriter.CHAR);
+	}
+
+	public static void detail(String format, int arg1, int arg2) {
+		logPrimitive(Level.DETAIL, format, arg1, BinaryLogWriter.INT, arg2, BinaryLogWriter.INT);
+	}
+
+	public static void detail(String format, int arg1, long arg2) {
+		logPrimitive(Level.DETAIL, format, arg1, BinaryLogWriter.INT, arg2, BinaryLogWriter.LONG);
+	}
+
+	public static void detail(String format, long arg1, int arg2) {
+		logPrimitive(Level.DETAIL, format, arg1, BinaryLogWriter.LONG, arg2, BinaryLogWriter.INT);
+	}
+
+	public static void detail(String format, long arg1, long arg2) {
+		logPrimitive(Level.DETAIL, format, arg1, BinaryLogWriter.LONG, arg2, BinaryLogWriter.LONG);
+	}
+
+	public static void detail(Message message) {
+		log(Level.DETAIL, message);
+	}
+
+	public static void log(Level level, String format, Object arg) {
+		if (isActive(level))
+			log(format, arg);
+	}
+
+	public static void log(Level level, String format, Object arg1, Object arg2) {
+		if (isActive(level))
+			log(format, arg1, arg2);
+	}
+
+	public static void log(Level level, String format, int arg) {
+		logPrimitive(level, format, arg, BinaryLogWriter.INT);
+	}
+
+	public static void log(Level level, String format, long arg) {
+		logPrimitive(level, format, arg, BinaryLogWriter.LONG);
+	}
+
+	public static void log(Level level, String format, byte arg) {
+		logPrimitive(level, format, arg, BinaryLogWriter.BYTE);
+	}
+
+	public static void log(Level level, String format, short arg) {
+		logPrimitive(level, format, arg, BinaryLogWriter.SHORT);
+	}
+
+	public static void log(Level level, String format, char arg) {
+		logPrimitive(level, format, arg, BinaryLogWriter.CHAR);
+	}
+
+	public static void log(Level level, String format, int arg1, int arg2) {
+		logPrimitive(level, format, arg1, BinaryLogWriter.INT, arg2, BinaryLogWriter.INT);
+	}
+
+	public static void log(Level level, String format, int arg1, long arg2) {
+		logPrimitive(level, format, arg1, BinaryLogWriter.INT, arg2, BinaryLogWriter.LONG);
+	}
+
+	public static void log(Level level, String format, long arg1, int arg2) {
+		logPrimitive(level, format, arg1, BinaryLogWriter.LONG, arg2, BinaryLogWriter.INT);
+	}
+
+	public static void log(Level level, String format, long arg1, long arg2) {
+		logPrimitive(level, format, arg1, BinaryLogWriter.LONG, arg2, BinaryLogWriter.LONG);
+	}
+
+	public static void log(Level level, Message message) {
+		if (isActive(level))
+			log("%s", message.render());
+	}
+
 	public static void log(Throwable throwable) {
 		if (silent)
 			return;
 
-		if (getOutputs().isEmpty()) {
-			warnNoOutputs();
+		List<PrintWriter> outputs = getOutputs();
+		List<BinaryLogWriter> binary = binaryOutputs;
+		for (BinaryLogWriter output : binary) {
+			output.log(throwable);
+		}
+		if (outputs.isEmpty()) {
+			if (binary.isEmpty())
+				warnNoOutputs();
+			return;
+		}
+
+		AsyncLogWriter writer = asyncWriter;
+		if (writer != null) {
+			writer.log(outputs, throwable);
 			return;
 		}
 
 		try {
-			for (PrintWriter output : getOutputs()) {
-				throwable.printStackTrace(output);
-				output.flush();
+			for (PrintWriter output : outputs) {
+				synchronized (output) {
+					throwable.printStackTrace(output);
+					output.flush();
+				}
 			}
 		} catch (Throwable t) {
 			throw new OutputException(t);
@@ -176,35 +539,40 @@ public class Log {
 		if (silent)
 			return;
 
-		if (sharedOutputs.isEmpty()) {
-			warnNoOutputs();
-			return;
-		}
-
-		try {
-			for (PrintWriter output : sharedOutputs) {
-				output.format(format, args);
-				output.println();
-				output.flush();
-			}
-		} catch (Throwable t) {
-			throw new OutputException(t);
+		List<BinaryLogWriter> binary = binaryOutputs;
+		for (BinaryLogWriter output : binary) {
+			output.log(format, args);
 		}
+		writeText(sharedOutputs, format, args, binary.isEmpty());
 	}
 
 	public static void sharedLog(Throwable throwable) {
 		if (silent)
 			return;
 
-		if (sharedOutputs.isEmpty()) {
-			warnNoOutputs();
+		List<PrintWriter> outputs = sharedOutputs;
+		List<BinaryLogWriter> binary = binaryOutputs;
+		for (BinaryLogWriter output : binary) {
+			output.log(throwable);
+		}
+		if (outputs.isEmpty()) {
+			if (binary.isEmpty())
+				warnNoOutputs();
+			return;
+		}
+
+		AsyncLogWriter writer = asyncWriter;
+		if (writer != null) {
+			writer.log(outputs, throwable);
 			return;
 		}
 
 		try {
-			for (PrintWriter output : sharedOutputs) {
-				throwable.printStackTrace(output);
-				output.flush();
+			for (PrintWriter output : outputs) {
+				synchronized (output) {
+					throwable.printStackTrace(output);
+					output.flush();
+				}
 			}
 		} catch (Throwable t) {
 			throw new OutputException(t);
@@ -212,8 +580,12 @@ public class Log {
 	}
 
 	public static void closeOutputs() {
+		flushPending();
 		try {
-			for (PrintWriter output : getOutputs()) {
+			List<PrintWriter> outputs = getOutputs();
+			if (outputs == sharedOutputs)
+				closeBinaryOutputs();
+			for (PrintWriter output : outputs) {
 				output.close();
 			}
 		} catch (Throwable t) {
@@ -221,18 +593,133 @@ public class Log {
 		}
 	}
 
+	/**
+	 * Writes a formatted line to <code>outputs</code>, or hands it to the writer thread in asynchronous mode.
+	 */
+	private static void writeText(List<PrintWriter> outputs, String format, Object args[], boolean warnIfNone) {
+		if (outputs.isEmpty()) {
+			if (warnIfNone)
+				warnNoOutputs();
+			return;
+		}
+
+		AsyncLogWriter writer = asyncWriter;
+		if (writer != null) {
+			writer.log(outputs, format, args);
+			return;
+		}
+
+		try {
+			for (PrintWriter output : outputs) {
+				synchronized (output) { // keep lines of concurrent threads whole
+					output.format(format, args);
+					output.println();
+					output.flush();
+				}
+			}
+		} catch (Throwable t) {
+			throw new OutputException(t);
+		}
+	}
+
+	/*
+	 * The primitive overloads pass their arguments to the binary outputs unboxed, and box them only for text outputs.
+	 * Each argument is carried as a long with its BinaryLogWriter type.
+	 */
+	private static void logPrimitive(Level level, String format, long arg, byte type) {
+		if (!isActive(level))
+			return;
+
+		List<BinaryLogWriter> binary = binaryOutputs;
+		for (BinaryLogWriter output : binary) {
+			output.logPrimitive(format, type, arg);
+		}
+		List<PrintWriter> outputs = getOutputs();
+		if (!outputs.isEmpty() || binary.isEmpty())
+			writeText(outputs, format, new Object[] { box(arg, type) }, binary.isEmpty());
+	}
+
+	private static void logPrimitive(Level level, String format, long arg1, byte type1, long arg2, byte type2) {
+		if (!isActive(level))
+			return;
+
+		List<BinaryLogWriter> binary = binaryOutputs;
+		for (BinaryLogWriter output : binary) {
+			output.logPrimitive(format, type1, arg1, type2, arg2);
+		}
+		List<PrintWriter> outputs = getOutputs();
+		if (!outputs.isEmpty() || binary.isEmpty())
+			writeText(outputs, format, new Object[] { box(arg1, type1), box(arg2, type2) }, binary.isEmpty());
+	}
+
+	private static Object box(long arg, byte type) {
+		switch (type) {
+			case BinaryLogWriter.INT:
+				return (int) arg;
+			case BinaryLogWriter.SHORT:
+				return (short) arg;
+			case BinaryLogWriter.BYTE:
+				return (byte) arg;
+			case BinaryLogWriter.CHAR:
+				return (char) arg;
+			default:
+				return arg;
+		}
+	}
+
+	private static synchronized void closeBinaryOutputs() {
+		List<BinaryLogWriter> closed = binaryOutputs;
+		binaryOutputs = Collections.emptyList();
+		for (BinaryLogWriter output : closed) {
+			output.close();
+		}
+	}
+
+	/**
+	 * Lets the writer thread finish with the outputs before they are removed or closed.
+	 */
+	private static void flushPending() {
+		AsyncLogWriter writer = asyncWriter;
+		if (writer != null)
+			writer.flush();
+	}
+
+	private static synchronized void registerShutdownFlush() {
+		if (!flushOnShutdown) {
+			Runtime.getRuntime().addShutdownHook(new Thread("Log flush") {
+				@Override
+				public void run() {
+					flushAll();
+				}
+			});
+			flushOnShutdown = true;
+		}
+	}
+
+	private static synchronized void addSharedOutput(PrintWriter output) {
+		threadLog.get().shared = true;
+		sharedOutputs = append(sharedOutputs, output);
+	}
+
+	private static List<PrintWriter> append(List<PrintWriter> outputs, PrintWriter output) {
+		List<PrintWriter> appended = new ArrayList<PrintWriter>(outputs.size() + 1);
+		appended.addAll(outputs);
+		appended.add(output);
+		return Collections.unmodifiableList(appended);
+	}
+
 	private static List<PrintWriter> getOutputs() {
-		if ((threadLog == null) || sharedLogThreads.contains(Thread.currentThread())) {
+		if (!threadOutputsEnabled)
 			return sharedOutputs;
-		} else {
-			return threadLog.get().outputs;
-		}
+
+		ThreadOutput thread = threadLog.get();
+		return thread.shared ? sharedOutputs : thread.outputs;
 	}
 
 	private static void warnNoOutputs() {
 		System.out.println(String.format(
 				"Warning: attempt to log without any outputs configured on thread %s. In shared list? %b.", Thread
-						.currentThread().getName(), sharedLogThreads.contains(Thread.currentThread())));
+						.currentThread().getName(), threadLog.get().shared));
 		Thread.dumpStack();
 	}
 }
@@ -1,6 +1,7 @@
 package edu.uci.plrg.cfi.common.log;
 
 import java.io.File;
+import java.io.IOException;
 
 public class LogFile {
 
@@ -26,6 +27,23 @@ public class LogFile {
 		return create(new File(filePath), collisionMode, noSuchPathMode);
 	}
 
+	/**
+	 * Opens a <code>RollingLogFile</code> at <code>logFile</code>, which rolls instead of colliding. Returns null when
+	 * the directory is missing and <code>noSuchPathMode</code> is <code>SKIP</code>.
+	 */
+	public static RollingLogFile createRolling(File logFile, NoSuchPathMode noSuchPathMode, long maxSize,
+			long intervalMillis, int retainCount, boolean compress) {
+		logFile = create(logFile, CollisionMode.OVERWRITE, noSuchPathMode);
+		if (!logFile.getParentFile().isDirectory())
+			return null;
+
+		try {
+			return new RollingLogFile(logFile, maxSize, intervalMillis, retainCount, compress);
+		} catch (IOException e) {
+			throw new LogFile.Exception("Failed to open rolling logfile %s: %s", logFile.getAbsolutePath(), e);
+		}
+	}
+
 	public static File create(File logFile, CollisionMode collisionMode, NoSuchPathMode noSuchPathMode) {
 		if (logFile.getParentFile() == null)
 			logFile = new File(new File("."), logFile.getPath());
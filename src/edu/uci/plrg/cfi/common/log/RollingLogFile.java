@@ -0,0 +1,278 @@
+package edu.uci.plrg.cfi.common.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Log output that rolls over to a fresh file once the current one reaches <code>maxSize</code> bytes or has been open
+ * for <code>intervalMillis</code> (checked on write, so an idle log rolls at its next line). The active file keeps the
+ * given name; each rolled segment is renamed to <code>name.rolled-N.ext</code> with increasing N. Only files named
+ * that way are compressed and pruned, so the <code>name.N.ext</code> files of <code>CollisionMode.AVOID</code> are
+ * left alone. Rolling happens only at a line end, and costs the logging thread a close, a rename and an open: gzip of
+ * rolled segments and deletion of all but the newest <code>retainCount</code> run on a background thread. If the
+ * rename fails, logging continues in the same file and the next attempt waits for another full size limit or
+ * interval. A non-empty file left by a previous run is rolled when the output is created. Add it with
+ * <code>Log.addOutput(OutputStream)</code>.
+ */
+public class RollingLogFile extends OutputStream {
+
+	public static final long NO_LIMIT = 0L;
+
+	private static final String SEGMENT_MARKER = ".rolled-";
+	private static final String COMPRESSED_SUFFIX = ".gz";
+	private static final String PARTIAL_SUFFIX = ".part";
+
+	private static ExecutorService maintenance = null;
+
+	private final File file;
+	private final long maxSize;
+	private final long intervalMillis;
+	private final int retainCount;
+	private final boolean compress;
+
+	private final String segmentPrefix;
+	private final String segmentSuffix;
+
+	private OutputStream output;
+	private long size;
+	private long rollMillis;
+	private int nextSegment;
+
+	/**
+	 * @param maxSize
+	 *            roll once the file holds this many bytes, or <code>NO_LIMIT</code>
+	 * @param intervalMillis
+	 *            roll once the file has been open this long, or <code>NO_LIMIT</code>
+	 * @param retainCount
+	 *            number of rolled segments to keep
+	 * @param compress
+	 *            gzip rolled segments in the background
+	 */
+	public RollingLogFile(File file, long maxSize, long intervalMillis, int retainCount, boolean compress)
+			throws IOException {
+		if ((maxSize < 0L) || (intervalMillis < 0L) || (retainCount < 0))
+			throw new IllegalArgumentException(String.format(
+					"Invalid rolling log limits: size %d, interval %dms, retaining %d", maxSize, intervalMillis,
+					retainCount));
+		if (file.isDirectory())
+			throw new LogFile.Exception("logfile %s already exists, and it is a directory!", file.getAbsolutePath());
+
+		this.file = file.getAbsoluteFile();
+		this.maxSize = maxSize;
+		this.intervalMillis = intervalMillis;
+		this.retainCount = retainCount;
+		this.compress = compress;
+
+		String name = this.file.getName();
+		int lastDot = name.lastIndexOf('.');
+		if (lastDot >= 0) {
+			segmentPrefix = name.substring(0, lastDot) + SEGMENT_MARKER;
+			segmentSuffix = name.substring(lastDot);
+		} else {
+			segmentPrefix = name + SEGMENT_MARKER;
+			segmentSuffix = "";
+		}
+
+		nextSegment = 0;
+		for (int segment : listSegments(false).keySet()) {
+			nextSegment = Math.max(nextSegment, segment + 1);
+		}
+		if (this.file.length() > 0L)
+			rollFile();
+		open(false);
+		scheduleMaintenance();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public synchronized void write(int b) throws IOException {
+		output.write(b);
+		size++;
+		if ((b == '\n') && isRollDue())
+			roll();
+	}
+
+	@Override
+	public synchronized void write(byte b[], int off, int len) throws IOException {
+		if (isRollDue()) {
+			int lineEnd = lastLineEnd(b, off, len);
+			if (lineEnd >= 0) { // finish the current line in this file, start the rest in the next
+				int head = (lineEnd + 1) - off;
+				output.write(b, off, head);
+				roll();
+				off += head;
+				len -= head;
+			}
+		}
+		output.write(b, off, len);
+		size += len;
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		output.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		output.close();
+	}
+
+	private boolean isRollDue() {
+		return ((maxSize != NO_LIMIT) && (size >= maxSize))
+				|| ((intervalMillis != NO_LIMIT) && (System.currentTimeMillis() >= rollMillis));
+	}
+
+	private static int lastLineEnd(byte b[], int off, int len) {
+		for (int i = (off + len) - 1; i >= off; i--) {
+			if (b[i] == '\n')
+				return i;
+		}
+		return -1;
+	}
+
+	private void roll() throws IOException {
+		output.close();
+		try {
+			rollFile();
+		} catch (LogFile.Exception e) { // keep logging to the same file rather than losing output
+			// not through Log, which may be writing to this file
+			System.out.println(String.format("Warning: %s. Continuing in the same file.", e.getMessage()));
+			open(true);
+			size = 0L; // retry after another maxSize bytes, not on every line
+			return;
+		}
+		open(false);
+		scheduleMaintenance();
+	}
+
+	private void rollFile() {
+		File segment = new File(file.getParentFile(), segmentPrefix + (nextSegment++) + segmentSuffix);
+		if (!file.renameTo(segment))
+			throw new LogFile.Exception("Failed to roll logfile %s to %s", file.getAbsolutePath(), segment.getName());
+	}
+
+	private void open(boolean append) throws IOException {
+		output = new BufferedOutputStream(new FileOutputStream(file, append), 1 << 13);
+		size = append ? file.length() : 0L;
+		rollMillis = System.currentTimeMillis() + intervalMillis;
+	}
+
+	private void scheduleMaintenance() {
+		synchronized (RollingLogFile.class) {
+			if (maintenance == null) {
+				maintenance = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(task, "Log file maintenance");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+			maintenance.execute(new Runnable() {
+				@Override
+				public void run() {
+					maintain();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Compresses and prunes the rolled segments. Runs only on the maintenance thread, and repeats any work left
+	 * unfinished by a previous run (e.g., segments rolled just before the JVM exited).
+	 */
+	private void maintain() {
+		try {
+			Map<Integer, File> segments = listSegments(true);
+			int excess = segments.size() - retainCount;
+			for (File segment : segments.values()) {
+				if (excess-- > 0) {
+					if (!segment.delete())
+						Log.log("Warning: failed to delete rolled logfile %s", segment.getPath());
+				} else if (compress && !segment.getName().endsWith(COMPRESSED_SUFFIX)) {
+					compress(segment);
+				}
+			}
+		} catch (Throwable t) {
+			Log.log("Warning: failed to maintain rolled logfiles of %s: %s", file.getPath(), t);
+		}
+	}
+
+	private void compress(File segment) throws IOException {
+		File partial = new File(segment.getPath() + COMPRESSED_SUFFIX + PARTIAL_SUFFIX);
+		InputStream in = new BufferedInputStream(new FileInputStream(segment));
+		try {
+			OutputStream out = new GZIPOutputStream(new FileOutputStream(partial), 1 << 16);
+			try {
+				byte buffer[] = new byte[1 << 16];
+				for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+					out.write(buffer, 0, count);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+
+		File compressed = new File(segment.getPath() + COMPRESSED_SUFFIX);
+		if (!partial.renameTo(compressed) || !segment.delete())
+			throw new IOException(String.format("Failed to replace %s with %s", segment.getName(), compressed.getName()));
+	}
+
+	/**
+	 * Rolled segments of this file by segment number, oldest first; a segment found both plain and compressed (when
+	 * compression was interrupted) is listed as the plain file.
+	 *
+	 * @param deletePartial
+	 *            delete partial compressions left by an interrupted run (only safe on the maintenance thread)
+	 */
+	private Map<Integer, File> listSegments(boolean deletePartial) {
+		Map<Integer, File> segments = new TreeMap<Integer, File>();
+		File files[] = file.getParentFile().listFiles();
+		if (files == null)
+			return segments;
+
+		for (File candidate : files) {
+			String name = candidate.getName();
+			if (!name.startsWith(segmentPrefix))
+				continue;
+			if (name.endsWith(PARTIAL_SUFFIX)) {
+				if (deletePartial)
+					candidate.delete();
+				continue;
+			}
+
+			boolean compressed = name.endsWith(COMPRESSED_SUFFIX);
+			String base = compressed ? name.substring(0, name.length() - COMPRESSED_SUFFIX.length()) : name;
+			if (!base.endsWith(segmentSuffix) || (base.length() <= (segmentPrefix.length() + segmentSuffix.length())))
+				continue;
+			String number = base.substring(segmentPrefix.length(), base.length() - segmentSuffix.length());
+			if (!number.matches("\\d{1,9}"))
+				continue;
+
+			int segment = Integer.parseInt(number);
+			if (compressed && segments.containsKey(segment))
+				continue;
+			segments.put(segment, candidate);
+		}
+		return segments;
+	}
+}
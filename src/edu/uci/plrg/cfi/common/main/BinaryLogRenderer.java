@@ -0,0 +1,99 @@
+package edu.uci.plrg.cfi.common.main;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.IllegalFormatException;
+
+import edu.uci.plrg.cfi.common.log.BinaryLogReader;
+import edu.uci.plrg.cfi.common.util.ArgumentStack;
+import edu.uci.plrg.cfi.common.util.OptionArgumentMap;
+
+/**
+ * Renders a log written by <code>BinaryLogWriter</code> as the text <code>Log</code> would have written, to the
+ * output file or to stdout. With -t, each line is prefixed with the time it was logged. Usage:
+ *
+ * <pre>
+ * BinaryLogRenderer [ -t ] &lt;binary-log&gt; [ &lt;output&gt; ]
+ * </pre>
+ */
+public class BinaryLogRenderer {
+
+	private static final OptionArgumentMap.BooleanOption timestampOption = OptionArgumentMap.createBooleanOption('t');
+
+	private final boolean timestamps;
+	private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+	public BinaryLogRenderer(boolean timestamps) {
+		this.timestamps = timestamps;
+	}
+
+	/**
+	 * Writes every event of <code>reader</code> to <code>output</code> and returns the number of events. A partial
+	 * record at the end of the log is skipped.
+	 */
+	public long render(BinaryLogReader reader, PrintWriter output) throws IOException {
+		long eventCount = 0L;
+		while (reader.next()) {
+			if (timestamps) {
+				output.print(timeFormat.format(new Date(reader.getTimeMillis())));
+				output.print(' ');
+			}
+			try {
+				output.print(String.format(reader.getFormat(), reader.getArgs()));
+			} catch (IllegalFormatException e) { // render what was logged rather than losing the event
+				output.print(reader.getFormat());
+				output.print(' ');
+				output.print(Arrays.toString(reader.getArgs()));
+			}
+			output.println();
+			eventCount++;
+		}
+		output.flush();
+		return eventCount;
+	}
+
+	public static void main(String[] args) {
+		ArgumentStack stack = new ArgumentStack(args);
+
+		try {
+			OptionArgumentMap.populateOptions(stack, timestampOption);
+
+			if ((stack.size() < 1) || (stack.size() > 2)) {
+				System.err.println("Usage: BinaryLogRenderer [ -t ] <binary-log> [ <output> ]");
+				System.exit(1);
+			}
+			File logFile = new File(stack.pop());
+			if (!logFile.isFile()) {
+				System.err.println(String.format("Binary log %s does not exist.", logFile.getPath()));
+				System.exit(1);
+			}
+
+			PrintWriter output;
+			if (stack.size() > 0)
+				output = new PrintWriter(new FileWriter(new File(stack.pop())));
+			else
+				output = new PrintWriter(new OutputStreamWriter(System.out));
+
+			BinaryLogReader reader = new BinaryLogReader(logFile);
+			try {
+				long eventCount = new BinaryLogRenderer(timestampOption.getValue()).render(reader, output);
+				if (reader.isTruncated())
+					System.err.println(String.format(
+							"Warning: binary log %s ends in a partial record; rendered the %d events before it.",
+							logFile.getPath(), eventCount));
+			} finally {
+				reader.close();
+				output.close();
+			}
+		} catch (Throwable t) {
+			t.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package edu.uci.plrg.cfi.common.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.uci.plrg.cfi.common.io.LittleEndianInputStream;
+import edu.uci.plrg.cfi.common.io.LittleEndianOutputStream;
+import edu.uci.plrg.cfi.common.io.TraceFileType;
+import edu.uci.plrg.cfi.common.io.TraceRecordDeduplicator;
+import edu.uci.plrg.cfi.common.io.TraceRecordSorter;
+import edu.uci.plrg.cfi.common.log.Log;
+import edu.uci.plrg.cfi.common.util.ArgumentStack;
+import edu.uci.plrg.cfi.common.util.OptionArgumentMap;
+
+/**
+ * Packs the record files of any number of run directories in one JVM: every graph-edge, graph-node and cross-module
+ * .dat file is deduplicated and sorted, concurrently on a bounded thread pool, and written next to the original as
+ * <code>&lt;file&gt;.packed</code> (or over the original with -i). The occurrence count of each packed record is
+ * written as one 64-bit word, in the same order, to <code>&lt;packed-file&gt;.counts</code>. Files that already have
+ * counts are skipped by -i, since packing them again would reset every count to 1. Usage:
+ *
+ * <pre>
+ * RunDirectoryPacker [ -t &lt;threads&gt; ] [ -m &lt;megabytes&gt; ] [ -d &lt;temp-dir&gt; ] [ -i ] &lt;run-dir&gt; ...
+ * </pre>
+ */
+public class RunDirectoryPacker {
+
+	private static final String PACKED_SUFFIX = ".packed";
+	private static final String COUNTS_SUFFIX = ".counts";
+	private static final String BACKUP_SUFFIX = ".original";
+	private static final int SPLIT_BATCH_RECORDS = 1 << 12;
+	// partition files open at once across all files being packed
+	private static final int MAXIMUM_OPEN_PARTITIONS = 1 << 10;
+
+	private static final OptionArgumentMap.IntegerOption threadOption = OptionArgumentMap.createIntegerOption('t',
+			Runtime.getRuntime().availableProcessors());
+	private static final OptionArgumentMap.IntegerOption memoryOption = OptionArgumentMap.createIntegerOption('m',
+			1024);
+	private static final OptionArgumentMap.StringOption tempDirectoryOption = OptionArgumentMap
+			.createStringOption('d');
+	private static final OptionArgumentMap.BooleanOption inPlaceOption = OptionArgumentMap.createBooleanOption('i');
+
+	private final int threadCount;
+	private final long memoryBudget;
+	private final File tempDirectory;
+	private final boolean inPlace;
+
+	private final AtomicInteger failureCount = new AtomicInteger();
+
+	public RunDirectoryPacker(int threadCount, long memoryBudget, File tempDirectory, boolean inPlace) {
+		this.threadCount = threadCount;
+		this.memoryBudget = memoryBudget;
+		this.tempDirectory = tempDirectory;
+		this.inPlace = inPlace;
+	}
+
+	public static List<File> findRecordFiles(File runDirectory) {
+		List<File> recordFiles = new ArrayList<File>();
+		File files[] = runDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile() && (TraceFileType.forFile(file) != null))
+					recordFiles.add(file);
+			}
+		}
+		return recordFiles;
+	}
+
+	/**
+	 * Packs all record files of <code>runDirectories</code> and returns the number of files that failed.
+	 */
+	public int pack(List<File> runDirectories) throws InterruptedException {
+		List<File> recordFiles = new ArrayList<File>();
+		for (File runDirectory : runDirectories) {
+			List<File> runFiles = findRecordFiles(runDirectory);
+			if (runFiles.isEmpty())
+				Log.log("No data files found in run directory %s", runDirectory.getPath());
+			recordFiles.addAll(runFiles);
+		}
+		if (recordFiles.isEmpty())
+			return 0;
+
+		// big files first, so that the last files to finish are small ones
+		Collections.sort(recordFiles, new Comparator<File>() {
+			@Override
+			public int compare(File first, File second) {
+				return Long.valueOf(second.length()).compareTo(first.length());
+			}
+		});
+
+		int poolSize = Math.min(threadCount, recordFiles.size());
+		final int threadsPerFile = Math.max(1, threadCount / poolSize);
+		// each file gets its share of the memory and descriptors, which bound its deduplication partitions
+		final long memoryPerFile = memoryBudget / poolSize;
+		final int partitionsPerFile = Math.max(2, MAXIMUM_OPEN_PARTITIONS / poolSize);
+		ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+		long start = System.currentTimeMillis();
+		long totalBytes = 0L;
+		for (final File recordFile : recordFiles) {
+			totalBytes += recordFile.length();
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					packFile(recordFile, threadsPerFile, memoryPerFile, partitionsPerFile);
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+		double seconds = Math.max(1L, System.currentTimeMillis() - start) / 1000.0;
+		Log.log("Packed %d files (%.1f MB) from %d run directories in %.1fs (%.1f MB/s) with %d failures",
+				recordFiles.size(), totalBytes / (double) (1 << 20), runDirectories.size(), seconds, totalBytes
+						/ (double) (1 << 20) / seconds, failureCount.get());
+		return failureCount.get();
+	}
+
+	private void packFile(File recordFile, int threads, long memory, int openPartitions) {
+		TraceFileType type = TraceFileType.forFile(recordFile);
+		File packed = new File(recordFile.getPath() + PACKED_SUFFIX);
+		File counts = new File((inPlace ? recordFile : packed).getPath() + COUNTS_SUFFIX);
+		if (inPlace && counts.exists()) {
+			Log.log("Skipping %s: it has already been packed (see %s)", recordFile.getPath(), counts.getName());
+			return;
+		}
+
+		File counted = null;
+		File sorted = null;
+		boolean packedFile = false;
+		try {
+			long start = System.currentTimeMillis();
+			long inputLength = recordFile.length();
+			counted = File.createTempFile(recordFile.getName(), ".counted", tempDirectory);
+			counted.deleteOnExit();
+			sorted = File.createTempFile(recordFile.getName(), ".sorted", tempDirectory);
+			sorted.deleteOnExit();
+
+			// each unique record carries its count as an extra word through the sort, then the two are split apart
+			TraceRecordDeduplicator deduplicator = new TraceRecordDeduplicator(type.wordsPerRecord, threads, memory,
+					openPartitions, tempDirectory);
+			deduplicator.deduplicateCounted(recordFile, counted);
+			new TraceRecordSorter(type.wordsPerRecord + 1, type.wordsPerRecord, memory, tempDirectory).sort(counted,
+					sorted);
+			counted.delete();
+			split(sorted, type.wordsPerRecord, packed, counts);
+			if (inPlace)
+				replace(recordFile, packed);
+			packedFile = true;
+
+			double seconds = Math.max(1L, System.currentTimeMillis() - start) / 1000.0;
+			Log.log("Packed %s (%d words): %d records to %d in %.1fs (%.1f MB/s)", recordFile.getPath(),
+					type.wordsPerRecord, deduplicator.getRecordCount(), deduplicator.getUniqueRecordCount(), seconds,
+					inputLength / (double) (1 << 20) / seconds);
+		} catch (Throwable t) {
+			failureCount.incrementAndGet();
+			Log.log("Failed to pack %s:", recordFile.getPath());
+			Log.log(t);
+		} finally {
+			if (counted != null)
+				counted.delete();
+			if (sorted != null)
+				sorted.delete();
+			if (!packedFile) { // leave no counts behind that would mark the original as packed
+				packed.delete();
+				counts.delete();
+			}
+		}
+	}
+
+	/**
+	 * Splits records of <code>wordsPerRecord + 1</code> words into the records and their trailing counts.
+	 */
+	private static void split(File counted, int wordsPerRecord, File records, File counts) throws IOException {
+		int countedWords = wordsPerRecord + 1;
+		long recordCount = counted.length() / (countedWords << 3);
+		long batch[] = new long[SPLIT_BATCH_RECORDS * countedWords];
+		long countBatch[] = new long[SPLIT_BATCH_RECORDS];
+
+		LittleEndianInputStream input = new LittleEndianInputStream(counted, 1 << 16);
+		LittleEndianOutputStream recordOutput = null;
+		LittleEndianOutputStream countOutput = null;
+		try {
+			recordOutput = new LittleEndianOutputStream(records, 1 << 16);
+			countOutput = new LittleEndianOutputStream(counts, 1 << 16);
+			for (long remaining = recordCount; remaining > 0L;) {
+				int batchRecords = (int) Math.min(SPLIT_BATCH_RECORDS, remaining);
+				input.readLongs(batch, 0, batchRecords * countedWords);
+				for (int i = 0; i < batchRecords; i++) {
+					recordOutput.writeLongs(batch, i * countedWords, wordsPerRecord);
+					countBatch[i] = batch[(i * countedWords) + wordsPerRecord];
+				}
+				countOutput.writeLongs(countBatch, 0, batchRecords);
+				remaining -= batchRecords;
+			}
+		} finally {
+			input.close();
+			if (recordOutput != null)
+				recordOutput.close();
+			if (countOutput != null)
+				countOutput.close();
+		}
+	}
+
+	/**
+	 * Renames <code>packed</code> over <code>original</code>. Where the rename cannot replace an existing file, the
+	 * original is moved aside and only deleted once the packed file has taken its place.
+	 */
+	private static void replace(File original, File packed) {
+		if (packed.renameTo(original))
+			return;
+
+		File backup = new File(original.getPath() + BACKUP_SUFFIX);
+		if (!original.renameTo(backup))
+			throw new IllegalStateException(String.format("Failed to replace %s with %s", original.getPath(),
+					packed.getName()));
+		if (!packed.renameTo(original)) {
+			if (!backup.renameTo(original))
+				throw new IllegalStateException(String.format(
+						"Failed to replace %s with %s. The original data is in %s", original.getPath(),
+						packed.getName(), backup.getPath()));
+			throw new IllegalStateException(String.format("Failed to replace %s with %s", original.getPath(),
+					packed.getName()));
+		}
+		backup.delete();
+	}
+
+	public static void main(String[] args) {
+		ArgumentStack stack = new ArgumentStack(args);
+		Log.addOutput(System.out);
+
+		try {
+			OptionArgumentMap.populateOptions(stack, threadOption, memoryOption, tempDirectoryOption, inPlaceOption);
+
+			List<File> runDirectories = new ArrayList<File>();
+			while (stack.size() > 0) {
+				File runDirectory = new File(stack.pop());
+				if (!runDirectory.isDirectory()) {
+					Log.log("Inputs to RunDirectoryPacker must be run directories! %s is not a directory.",
+							runDirectory.getPath());
+					System.exit(1);
+				}
+				runDirectories.add(runDirectory);
+			}
+			if (runDirectories.isEmpty()) {
+				Log.log("Usage: RunDirectoryPacker [ -t <threads> ] [ -m <megabytes> ] [ -d <temp-dir> ] [ -i ] <run-dir> ...");
+				System.exit(1);
+			}
+
+			File tempDirectory = tempDirectoryOption.hasValue() ? new File(tempDirectoryOption.getValue()) : null;
+			RunDirectoryPacker packer = new RunDirectoryPacker(threadOption.getValue(),
+					((long) memoryOption.getValue()) << 20, tempDirectory, inPlaceOption.getValue());
+			System.exit(packer.pack(runDirectories) > 0 ? 1 : 0);
+		} catch (Throwable t) {
+			t.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
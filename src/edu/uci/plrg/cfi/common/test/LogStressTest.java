@@ -0,0 +1,203 @@
+package edu.uci.plrg.cfi.common.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.uci.plrg.cfi.common.log.Log;
+
+/**
+ * Logs from many threads at once, in synchronous and asynchronous mode, while another thread keeps adding shared
+ * outputs, and checks that every line arrives whole and in per-thread order. Shared outputs are tested first, since
+ * adding any thread output switches unshared threads over to their thread outputs. Usage:
+ *
+ * <pre>
+ * LogStressTest [ &lt;threads&gt; [ &lt;lines-per-thread&gt; ] ]
+ * </pre>
+ */
+public class LogStressTest {
+
+	private static final int CHURN_OUTPUTS = 8;
+
+	private static class DiscardingOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte b[], int off, int len) {
+		}
+	}
+
+	private static int failureCount = 0;
+
+	public static void main(String[] args) {
+		try {
+			int threadCount = (args.length > 0) ? Integer.parseInt(args[0]) : 32;
+			int lineCount = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+
+			testSharedOutput(false, threadCount, lineCount);
+			testSharedOutput(true, threadCount, lineCount);
+			testThreadOutputs(false, threadCount, lineCount);
+			testThreadOutputs(true, threadCount, lineCount);
+
+			System.out.println((failureCount == 0) ? "All log stress tests passed" : (failureCount + " failures"));
+		} catch (Throwable t) {
+			t.printStackTrace();
+		}
+	}
+
+	private static void testSharedOutput(boolean asynchronous, int threadCount, final int lineCount)
+			throws Exception {
+		File file = File.createTempFile("log-stress", ".log");
+		file.deleteOnExit();
+		Log.addOutput(file);
+		Log.setAsynchronous(asynchronous);
+
+		Thread churn = new Thread("churn") {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < CHURN_OUTPUTS; i++) {
+						Log.addOutput(new DiscardingOutputStream());
+						Thread.sleep(10L);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+
+		List<Thread> workers = createWorkers(threadCount, lineCount, null);
+		long start = System.currentTimeMillis();
+		churn.start();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		churn.join();
+		Log.flushAll();
+		long elapsed = System.currentTimeMillis() - start;
+
+		Log.closeOutputs();
+		Log.clearOutputs();
+		Log.setAsynchronous(false);
+
+		int lost = verify(file, threadCount, lineCount);
+		System.out.println(String.format("Shared output, %s: %d threads x %d lines in %dms, %d lost or garbled",
+				asynchronous ? "async" : "sync", threadCount, lineCount, elapsed, lost));
+		file.delete();
+	}
+
+	private static void testThreadOutputs(boolean asynchronous, int threadCount, int lineCount) throws Exception {
+		Log.setAsynchronous(asynchronous);
+
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < threadCount; i++) {
+			File file = File.createTempFile("log-stress", ".log");
+			file.deleteOnExit();
+			files.add(file);
+		}
+
+		List<Thread> workers = createWorkers(threadCount, lineCount, files);
+		long start = System.currentTimeMillis();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		Log.setAsynchronous(false);
+
+		int lost = 0;
+		for (int i = 0; i < threadCount; i++) {
+			lost += verifyWorker(files.get(i), i, lineCount);
+			files.get(i).delete();
+		}
+		System.out.println(String.format("Thread outputs, %s: %d threads x %d lines in %dms, %d lost or garbled",
+				asynchronous ? "async" : "sync", threadCount, lineCount, elapsed, lost));
+	}
+
+	/**
+	 * @param files
+	 *            a thread output for each worker, or null to log to the shared outputs
+	 */
+	private static List<Thread> createWorkers(int threadCount, final int lineCount, final List<File> files) {
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < threadCount; i++) {
+			final int id = i;
+			workers.add(new Thread("worker " + id) {
+				@Override
+				public void run() {
+					try {
+						if (files != null)
+							Log.addThreadOutput(files.get(id));
+						for (long line = 0; line < lineCount; line++) {
+							Log.log("worker %d line %d", (long) id, line);
+						}
+						if (files != null) {
+							Log.closeOutputs();
+							Log.clearThreadOutputs();
+						}
+					} catch (Throwable t) {
+						t.printStackTrace();
+					}
+				}
+			});
+		}
+		return workers;
+	}
+
+	private static int verify(File file, int threadCount, int lineCount) throws IOException {
+		int nextLine[] = new int[threadCount];
+		int garbled = 0;
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				String words[] = line.split(" ");
+				if ((words.length != 4) || !words[0].equals("worker") || !words[2].equals("line")) {
+					garbled++;
+					continue;
+				}
+				int worker = Integer.parseInt(words[1]);
+				if (Integer.parseInt(words[3]) != nextLine[worker]++)
+					garbled++;
+			}
+		} finally {
+			reader.close();
+		}
+
+		int lost = garbled;
+		for (int worker = 0; worker < threadCount; worker++) {
+			lost += Math.abs(lineCount - nextLine[worker]);
+		}
+		failureCount += (lost > 0) ? 1 : 0;
+		return lost;
+	}
+
+	private static int verifyWorker(File file, int worker, int lineCount) throws IOException {
+		int expectedLine = 0;
+		int lost = 0;
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				if (!line.equals(String.format("worker %d line %d", worker, expectedLine)))
+					lost++;
+				expectedLine++;
+			}
+		} finally {
+			reader.close();
+		}
+
+		lost += Math.abs(lineCount - expectedLine);
+		failureCount += (lost > 0) ? 1 : 0;
+		return lost;
+	}
+}
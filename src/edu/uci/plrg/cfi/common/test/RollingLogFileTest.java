@@ -0,0 +1,189 @@
+package edu.uci.plrg.cfi.common.test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import edu.uci.plrg.cfi.common.log.RollingLogFile;
+
+/**
+ * Rolls a <code>RollingLogFile</code> by size and checks that lines stay whole and in order across the segments, that
+ * only the newest segments are kept (compressed), that files numbered by <code>CollisionMode.AVOID</code> are not
+ * pruned, and that a failed roll is retried only after another full size limit. Usage:
+ *
+ * <pre>
+ * RollingLogFileTest [ &lt;lines&gt; ]
+ * </pre>
+ */
+public class RollingLogFileTest {
+
+	private static final long MAX_SIZE = 1 << 12;
+	private static final int RETAIN_COUNT = 3;
+	private static final long MAINTENANCE_TIMEOUT_MILLIS = 10000L;
+
+	private static int failureCount = 0;
+
+	public static void main(String[] args) {
+		try {
+			int lineCount = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+
+			testRetention(lineCount);
+			testFailedRoll();
+
+			System.out.println((failureCount == 0) ? "All rolling log tests passed" : (failureCount + " failures"));
+		} catch (Throwable t) {
+			t.printStackTrace();
+		}
+	}
+
+	private static void testRetention(int lineCount) throws Exception {
+		File directory = createDirectory();
+		File avoided = new File(directory, "test.0.log");
+		writeLine(avoided, "not a segment");
+
+		RollingLogFile log = new RollingLogFile(new File(directory, "test.log"), MAX_SIZE, RollingLogFile.NO_LIMIT,
+				RETAIN_COUNT, true);
+		for (int i = 0; i < lineCount; i++) {
+			log.write(String.format("line %d\n", i).getBytes());
+		}
+		log.close();
+
+		List<File> segments = awaitSegments(directory, RETAIN_COUNT);
+		check(segments.size() == RETAIN_COUNT, "%d segments retained instead of %d", segments.size(), RETAIN_COUNT);
+		check(avoided.exists(), "%s was pruned as a segment", avoided.getName());
+
+		// the retained segments and the active file hold the last lines, whole and in order
+		List<String> lines = new ArrayList<String>();
+		for (File segment : segments) {
+			check(segment.getName().endsWith(".gz"), "%s was not compressed", segment.getName());
+			lines.addAll(readLines(new GZIPInputStream(new FileInputStream(segment))));
+		}
+		lines.addAll(readLines(new FileInputStream(log.getFile())));
+		int first = lineCount - lines.size();
+		for (int i = 0; i < lines.size(); i++) {
+			if (!lines.get(i).equals(String.format("line %d", first + i))) {
+				check(false, "expected line %d but found \"%s\"", first + i, lines.get(i));
+				break;
+			}
+		}
+		System.out.println(String.format("Retention: %d lines, %d segments kept with the last %d lines",
+				lineCount, segments.size(), lines.size()));
+		deleteAll(directory);
+	}
+
+	private static void testFailedRoll() throws Exception {
+		File directory = createDirectory();
+		RollingLogFile log = new RollingLogFile(new File(directory, "test.log"), MAX_SIZE, RollingLogFile.NO_LIMIT,
+				RETAIN_COUNT, false);
+		File blocker = new File(directory, "test.rolled-0.log");
+		blocker.mkdir(); // the first roll cannot rename over a directory
+
+		PrintStream stdout = System.out;
+		ByteArrayOutputStream warnings = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(warnings, true));
+		try {
+			byte line[] = "0123456789abcdef\n".getBytes();
+			for (long written = 0L; written < (MAX_SIZE + (MAX_SIZE >> 1)); written += line.length) {
+				log.write(line);
+			}
+		} finally {
+			System.setOut(stdout);
+		}
+		int warningCount = warnings.toString().split("Warning:", -1).length - 1;
+		check(warningCount == 1, "%d warnings for one failed roll", warningCount);
+		check(log.getFile().length() > MAX_SIZE, "the failed roll lost output");
+
+		byte line[] = "after\n".getBytes();
+		for (long written = 0L; written <= MAX_SIZE; written += line.length) {
+			log.write(line);
+		}
+		log.close();
+		check(new File(directory, "test.rolled-1.log").isFile(), "the roll was not retried after another %d bytes",
+				MAX_SIZE);
+		System.out.println(String.format("Failed roll: %d warnings, retried after %d bytes", warningCount, MAX_SIZE));
+		blocker.delete();
+		deleteAll(directory);
+	}
+
+	/**
+	 * Waits for the maintenance thread to prune the rolled segments, and returns them oldest first.
+	 */
+	private static List<File> awaitSegments(File directory, int expectedCount) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + MAINTENANCE_TIMEOUT_MILLIS;
+		while (true) {
+			List<File> segments = new ArrayList<File>();
+			boolean settled = true;
+			for (File file : directory.listFiles()) {
+				if (file.getName().startsWith("test.rolled-")) {
+					segments.add(file);
+					settled &= file.getName().endsWith(".gz");
+				}
+			}
+			if ((settled && (segments.size() <= expectedCount)) || (System.currentTimeMillis() > deadline)) {
+				Collections.sort(segments, new Comparator<File>() {
+					@Override
+					public int compare(File first, File second) {
+						return segmentNumber(first) - segmentNumber(second);
+					}
+				});
+				return segments;
+			}
+			Thread.sleep(10L);
+		}
+	}
+
+	private static int segmentNumber(File segment) {
+		String name = segment.getName();
+		return Integer.parseInt(name.substring("test.rolled-".length(), name.indexOf('.', "test.rolled-".length())));
+	}
+
+	private static List<String> readLines(InputStream input) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+		try {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	private static File createDirectory() throws IOException {
+		File directory = File.createTempFile("rolling-log", "");
+		directory.delete();
+		directory.mkdir();
+		return directory;
+	}
+
+	private static void writeLine(File file, String line) throws IOException {
+		PrintStream output = new PrintStream(file);
+		output.println(line);
+		output.close();
+	}
+
+	private static void deleteAll(File directory) {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private static void check(boolean condition, String format, Object... args) {
+		if (!condition) {
+			System.out.println("Error: " + String.format(format, args));
+			failureCount++;
+		}
+	}
+}